@@ -0,0 +1,415 @@
+package project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the static analyses of programs and of the optimizers built on
+ * them
+ */
+public class AnalysisTester {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+	MachineModel model = new MachineModel(true, () -> {});
+
+	private void setCode(Instruction... code) {
+		for (int i = 0; i < code.length; i++)
+			model.setCode(i, code[i]);
+	}
+
+	@Test
+	// Check that the dataflow optimizer removes a dead STO direct
+	public void testSTOdataflow() throws IOException {
+		File in = TestFixtures.pexe(temp, new Instruction[] {
+				new Instruction((byte)0b00100001,5),
+				new Instruction((byte)0b00011011,7),
+				new Instruction((byte)0b00100001,5),
+				new Instruction((byte)0b00010001,0)});
+		File out = temp.newFile();
+		assertEquals("success", DataflowOptimizer.optimize(in.getPath(), out.getPath(), null));
+		MachineModel optimized = TestFixtures.load(out);
+		assertEquals("Dead STO removed", 2, optimized.getProgramSize());
+		optimized.run(10);
+		assertEquals("Data[5] is 7", 7, optimized.getData(5));
+	}
+
+	@Test
+	// A JMPZ relative past the end of the program is kept, not relocated out of an array
+	public void testJMPZdataflowTargetOutside() throws IOException {
+		File in = TestFixtures.pexe(temp, new Instruction[] {
+				new Instruction((byte)0b00011000,Memory.IN_PORT),
+				new Instruction((byte)0b01011001,3),
+				new Instruction((byte)0b00010001,0)});
+		File out = temp.newFile();
+		assertEquals("success", DataflowOptimizer.optimize(in.getPath(), out.getPath(), null));
+		assertArrayEquals(Files.readAllBytes(in.toPath()), Files.readAllBytes(out.toPath()));
+	}
+
+	@Test
+	// A STO before a faulting LOD of OUT_PORT is not dead, the memory is visible after the fault
+	public void testSTOdataflowBeforeFault() throws IOException {
+		File in = TestFixtures.pexe(temp, new Instruction[] {
+				new Instruction((byte)0b00011011,5),
+				new Instruction((byte)0b00100001,0),
+				new Instruction((byte)0b00011000,Memory.OUT_PORT),
+				new Instruction((byte)0b00011011,6),
+				new Instruction((byte)0b00100001,0),
+				new Instruction((byte)0b00010001,0)});
+		File out = temp.newFile();
+		assertEquals("success", DataflowOptimizer.optimize(in.getPath(), out.getPath(), null));
+		MachineModel optimized = TestFixtures.load(out);
+		try {
+			optimized.run(10);
+			fail("LOD of OUT_PORT faults");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertEquals("First STO kept", 5, optimized.getData(0));
+		}
+	}
+
+	@Test
+	// The dataflow optimizer reports an illegal instruction instead of optimizing it
+	public void testNOTdataflowIllegalFlags() throws IOException {
+		File in = TestFixtures.pexe(temp, new Instruction[] {
+				new Instruction((byte)0b00001010,0),
+				new Instruction((byte)0b00010001,0)});
+		assertEquals("Illegal instruction at code index 0",
+				DataflowOptimizer.optimize(in.getPath(), temp.newFile().getPath(), null));
+	}
+
+	@Test
+	// LOD and STO direct and LOD indirect through a computed pointer are proven safe
+	public void testLODindirectRangeAnalysis() {
+		model.setData(5, 3);
+		setCode(new Instruction((byte)0b00011000,5),
+				new Instruction((byte)0b00101011,1),
+				new Instruction((byte)0b00100001,6),
+				new Instruction((byte)0b00011101,6),
+				new Instruction((byte)0b00010001,0));
+		model.setData(4, 77);
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		for (int pc = 0; pc <= 4; pc++)
+			assertTrue("Safe at " + pc, analysis.isAccessSafe(pc));
+		assertEquals("", analysis.report());
+		assertArrayEquals("Pointer is 4", new long[] {4, 4}, analysis.getDataRange(3, 6));
+		assertArrayEquals("Accumulator at HALT", new long[] {77, 77}, analysis.getAccumRange(4));
+	}
+
+	@Test
+	// LOD and STO direct outside data memory and the ports may fault
+	public void testLODdirectRangeAnalysisOutside() {
+		setCode(new Instruction((byte)0b00011000,0x300),
+				new Instruction((byte)0b00010001,0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		assertFalse("LOD 300", analysis.isAccessSafe(0));
+		assertNull("HALT not reached", analysis.getAccumRange(1));
+		assertEquals("\nWarning at code index 0: LOD  300 may access data [768, 768]", analysis.report());
+		setCode(new Instruction((byte)0b00100001,-1));
+		assertFalse("STO -1", RangeAnalysis.analyze(model).isAccessSafe(0));
+	}
+
+	@Test
+	// LOD indirect through a pointer read from IN_PORT may access any index
+	public void testLODindirectRangeAnalysisOutside() {
+		model.setData(2, 0x1000);
+		setCode(new Instruction((byte)0b00011101,2),
+				new Instruction((byte)0b00011000,Memory.IN_PORT),
+				new Instruction((byte)0b00100001,2),
+				new Instruction((byte)0b00011101,2),
+				new Instruction((byte)0b00010001,0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		assertFalse("Pointer 1000", analysis.isAccessSafe(0));
+		model.setData(2, 1);
+		analysis = RangeAnalysis.analyze(model);
+		assertTrue("Pointer 1", analysis.isAccessSafe(0));
+		assertTrue("LOD of IN_PORT", analysis.isAccessSafe(1));
+		assertFalse("Pointer from IN_PORT", analysis.isAccessSafe(3));
+	}
+
+	@Test
+	// AND direct does not read its word when the accumulator is 0
+	public void testANDrangeAnalysisShortCircuit() {
+		setCode(new Instruction((byte)0b00011011,0),
+				new Instruction((byte)0b01001000,Memory.OUT_PORT),
+				new Instruction((byte)0b00010001,0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		assertTrue("No read of OUT_PORT", analysis.isAccessSafe(1));
+		assertArrayEquals("HALT reached", new long[] {0, 0}, analysis.getAccumRange(2));
+	}
+
+	@Test
+	// MOVB checks its source pointer even when the count is 0
+	public void testMOVBrangeAnalysisZeroCount() {
+		model.setData(0, 600);
+		model.setData(1, 10);
+		setCode(new Instruction((byte)0b00011011,0),
+				new Instruction((byte)0b01110100,0),
+				new Instruction((byte)0b00010001,0));
+		assertFalse("Source 600", RangeAnalysis.analyze(model).isAccessSafe(1));
+		model.step();
+		try {
+			model.step();
+			fail("MOVB did not fault");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("last source index 600"));
+		}
+	}
+
+	@Test
+	// FILL with a negative count faults even though it fills no word
+	public void testFILLrangeAnalysisNegativeCount() {
+		model.setData(0, 10);
+		model.setData(1, -3);
+		setCode(new Instruction((byte)0b01111101,0),
+				new Instruction((byte)0b00010001,0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		assertFalse("Count -3", analysis.isAccessSafe(0));
+		assertNull("HALT not reached", analysis.getAccumRange(1));
+		try {
+			model.step();
+			fail("FILL did not fault");
+		} catch (IllegalArgumentException e) {
+			assertEquals("fromIndex(10) > toIndex(7)", e.getMessage());
+		}
+	}
+
+	@Test
+	// MOVB with a negative accumulator faults even though it copies no word
+	public void testMOVBrangeAnalysisNegativeCount() {
+		model.setData(0, 10);
+		model.setData(1, 20);
+		setCode(new Instruction((byte)0b00011011,-2),
+				new Instruction((byte)0b01110100,0),
+				new Instruction((byte)0b00010001,0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		assertFalse("Count -2", analysis.isAccessSafe(1));
+		assertNull("HALT not reached", analysis.getAccumRange(2));
+		model.step();
+		try {
+			model.step();
+			fail("MOVB did not fault");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("length -2 is negative"));
+		}
+	}
+
+	@Test
+	// The peephole optimizer removes a NOP and relocates JMPZ immediate
+	public void testNOPpeephole() {
+		List<Instruction> code = Arrays.asList(
+				new Instruction((byte)0b00000000,0),
+				new Instruction((byte)0b00011000,5),
+				new Instruction((byte)0b01011010,1),
+				new Instruction((byte)0b00010001,0));
+		List<Instruction> optimized = PeepholeOptimizer.optimize(code, null);
+		assertEquals("NOP removed", 3, optimized.size());
+		assertEquals("LOD kept", 5, optimized.get(0).arg);
+		assertEquals("JMPZ relocated", 0, optimized.get(1).arg);
+	}
+
+	@Test
+	// SUB #1; JMPZ after a LOD immediate folds into the LOD, the JMPZ goes when it cannot be taken
+	public void testSUBpeepholeKnownCount() {
+		List<Instruction> code = Arrays.asList(
+				new Instruction((byte)0b00011011,2),
+				new Instruction((byte)0b00110011,1),
+				new Instruction((byte)0b01011001,3),
+				new Instruction((byte)0b00100001,7),
+				new Instruction((byte)0b00010001,0));
+		StringBuilder report = new StringBuilder();
+		List<Instruction> optimized = PeepholeOptimizer.optimize(code, report);
+		assertEquals("\nPeephole optimizer: 2 of 5 instructions removed"
+				+ "\nLOD #k; ADD/SUB #m: 1\nLOD #k; JMPZ: 1", report.toString());
+		assertEquals(3, optimized.size());
+		assertEquals("Folded", 1, optimized.get(0).arg);
+		assertEquals(0b00100001, optimized.get(1).opcode);
+		setCode(optimized.toArray(new Instruction[0]));
+		model.setProgramSize(2);
+		assertTrue("Halted", model.run(10).isHalted());
+		assertEquals(1, model.getData(7));
+	}
+
+	@Test
+	// The count reaches 0: the JMPZ is kept, and so is a SUB that is a jump target
+	public void testSUBpeepholeTakenOrTarget() {
+		List<Instruction> code = Arrays.asList(
+				new Instruction((byte)0b00011011,1),
+				new Instruction((byte)0b00110011,1),
+				new Instruction((byte)0b01011001,2),
+				new Instruction((byte)0b00010001,0),
+				new Instruction((byte)0b00100001,7),
+				new Instruction((byte)0b00011011,5),
+				new Instruction((byte)0b00110011,1),
+				new Instruction((byte)0b01011010,6),
+				new Instruction((byte)0b00010001,0));
+		List<Instruction> optimized = PeepholeOptimizer.optimize(code, null);
+		assertEquals("Only the first SUB removed", 8, optimized.size());
+		assertEquals("LOD #0", 0, optimized.get(0).arg);
+		assertEquals("JMPZ kept", 0b01011001, optimized.get(1).opcode);
+		assertEquals("Relative target kept", 2, optimized.get(1).arg);
+		assertEquals("SUB target kept", 0b00110011, optimized.get(5).opcode);
+		assertEquals("JMPZ relocated", 5, optimized.get(6).arg);
+	}
+
+	@Test
+	// The blocks and the loop of a JUMP relative back to a JMPZ relative
+	public void testJUMPrelativeControlFlowGraph() {
+		model.setCode(0, new Instruction((byte)0b00011011,2));
+		model.setCode(1, new Instruction((byte)0b00110011,1));
+		model.setCode(2, new Instruction((byte)0b01011001,2));
+		model.setCode(3, new Instruction((byte)0b01010000,-2));
+		model.setCode(4, new Instruction((byte)0b00010001,0));
+		model.setProgramSize(4);
+		ControlFlowGraph cfg = model.getControlFlowGraph();
+		assertEquals("Four blocks", 4, cfg.getBlockCount());
+		assertEquals("SUB starts block 1", 1, cfg.getBlockStart(1));
+		assertTrue("Block 1 is a loop header", cfg.isLoopHeader(1));
+		assertEquals("JUMP is in the loop", 1, cfg.getLoopDepth(cfg.getBlock(3)));
+		assertEquals("HALT is not in the loop", 0, cfg.getLoopDepth(cfg.getBlock(4)));
+		assertEquals("Block 1 dominates HALT", 1, cfg.getImmediateDominator(3));
+		model.setCode(3, new Instruction((byte)0b00010001,0));
+		assertFalse("Graph rebuilt after setCode", model.getControlFlowGraph().isLoopHeader(1));
+	}
+
+	@Test
+	// A computed JMPZ has an edge to every block and a jump outside the program has none
+	public void testJMPZindirControlFlowGraph() {
+		setCode(new Instruction((byte)0b00011011,0),
+				new Instruction((byte)0b01011100,5),
+				new Instruction((byte)0b01010011,9),
+				new Instruction((byte)0b00010001,0));
+		ControlFlowGraph cfg = model.getControlFlowGraph();
+		assertTrue("Computed jump", cfg.hasComputedJumps());
+		assertEquals("Three blocks", 3, cfg.getBlockCount());
+		assertEquals("Edge to every block", 3, cfg.getSuccessorCount(0));
+		assertEquals("JUMP outside", 0, cfg.getSuccessorCount(1));
+		assertTrue("HALT reachable by the computed jump", cfg.isReachable(2));
+		assertTrue("Loop on the entry", cfg.isLoopHeader(0));
+	}
+
+	@Test
+	// An empty slot ends its block like HALT and a program without code has no block
+	public void testHALTcontrolFlowGraphEmpty() {
+		model.setCode(0, new Instruction((byte)0b01011010,2));
+		model.setCode(2, new Instruction((byte)0b00010001,0));
+		ControlFlowGraph cfg = model.getControlFlowGraph();
+		assertEquals("Three blocks", 3, cfg.getBlockCount());
+		assertEquals("Empty slot has no successor", 0, cfg.getSuccessorCount(1));
+		assertEquals(0, ControlFlowGraph.build(new byte[0], new int[0]).getBlockCount());
+	}
+
+	@Test
+	// The superoptimizer replaces NOT; NOT by one AND immediate
+	public void testNOTsuperoptimizer() {
+		List<Instruction> code = Arrays.asList(
+				new Instruction((byte)0b00001001,0),
+				new Instruction((byte)0b00001001,0));
+		List<Instruction> shorter = Superoptimizer.optimize(code, true, 1, null);
+		assertEquals("One instruction", 1, shorter.size());
+		assertEquals("AND immediate", "AND", InstructionSet.mnemonic(
+				InstructionSet.HANDLER[shorter.get(0).opcode & 0xFF]));
+		assertEquals("Immediate flags", 2, shorter.get(0).opcode & 6);
+	}
+
+	@Test
+	// A fragment with a JUMP or a direct access outside data memory is not searched
+	public void testJUMPsuperoptimizerNotSearched() {
+		StringBuilder report = new StringBuilder();
+		assertNull(Superoptimizer.optimize(Arrays.asList(
+				new Instruction((byte)0b00001001,0),
+				new Instruction((byte)0b01010011,0)), true, 1, report));
+		assertEquals("\nSuperoptimizer: JUMP  #0 cannot be searched", report.toString());
+		assertNull("LOD outside", Superoptimizer.optimize(Arrays.asList(
+				new Instruction((byte)0b00011000,Memory.IN_PORT),
+				new Instruction((byte)0b00001001,0)), true, 1, null));
+	}
+
+	@Test
+	// LOD immediate then STO has no shorter equivalent
+	public void testSTOsuperoptimizerNoImprovement() {
+		StringBuilder report = new StringBuilder();
+		assertNull(Superoptimizer.optimize(Arrays.asList(
+				new Instruction((byte)0b00011011,5),
+				new Instruction((byte)0b00100001,3)), true, 1, report));
+		assertTrue(report.toString(), report.toString().endsWith("candidates, no shorter sequence"));
+	}
+
+	@Test
+	// A program whose reachable instructions are legal is verified and runs
+	public void testLODverifier() {
+		setCode(new Instruction((byte)0b00011011,1),
+				new Instruction((byte)0b01011001,2),
+				new Instruction((byte)0b00101011,1),
+				new Instruction((byte)0b00010001,0));
+		StringBuilder error = new StringBuilder();
+		assertTrue("Verified", ProgramVerifier.verify(model, error));
+		assertEquals("", error.toString());
+		assertTrue("Verified mode", model.isVerified());
+		assertTrue("Halted", model.run(10).isHalted());
+		assertEquals(2, model.getAccum());
+	}
+
+	@Test
+	// A JUMP immediate outside the program and a reachable bad parity are rejected
+	public void testJUMPverifierFails() {
+		setCode(new Instruction((byte)0b01010011,5),
+				new Instruction((byte)0b00010001,0));
+		StringBuilder error = new StringBuilder();
+		assertFalse("JUMP outside", ProgramVerifier.verify(model, error));
+		assertEquals("\nError at code index 0: next instruction 5 is outside the program", error.toString());
+		assertFalse("Not in verified mode", model.isVerified());
+		setCode(new Instruction((byte)0b00011010,1));
+		error = new StringBuilder();
+		assertFalse("Bad parity", ProgramVerifier.verify(model, error));
+		assertEquals("\nError at code index 0: parity check fails", error.toString());
+	}
+
+	@Test (expected=ParityCheckException.class)
+	// setPC to an instruction the verifier did not reach executes it with every check
+	public void testLODverifierSetPCbadParity() {
+		setCode(new Instruction((byte)0b00010001,0),
+				new Instruction((byte)0b00011010,7),
+				new Instruction((byte)0b00010001,0));
+		assertTrue("Verified", ProgramVerifier.verify(model, new StringBuilder()));
+		model.setPC(1);
+		model.step();
+	}
+
+	@Test (expected=CodeAccessException.class)
+	// setPC to an empty slot of a verified program is a code access error
+	public void testHALTverifierSetPCemptySlot() {
+		model.setCode(0, new Instruction((byte)0b00010001,0));
+		model.setCode(2, new Instruction((byte)0b00010001,0));
+		assertTrue("Verified", ProgramVerifier.verify(model, new StringBuilder()));
+		model.setPC(1);
+		model.step();
+	}
+
+	@Test
+	// After setPC leaves the verified instructions, the run returns to them with a JUMP
+	public void testJUMPverifierSetPCreturns() {
+		model.setCode(0, new Instruction((byte)0b00010001,0));
+		model.setCode(2, new Instruction((byte)0b00011011,5));
+		model.setCode(3, new Instruction((byte)0b01010011,0));
+		assertTrue("Verified", ProgramVerifier.verify(model, new StringBuilder()));
+		model.setPC(2);
+		assertTrue("Halted", model.run(10).isHalted());
+		assertEquals(5, model.getAccum());
+		assertEquals("HALT at 0", 0, model.getPC());
+		assertTrue("Still verified", model.isVerified());
+	}
+}
@@ -1,11 +1,17 @@
 package project;
 
-import java.util.Arrays;
 import java.util.Set;
-import java.util.TreeSet;
 
+/**
+ * An assembler of pasm source files into pexe files. The implementations
+ * keep no state between calls: everything a call needs is created by the
+ * call, and the tables they share (Instruction.opcodes, noArgument and the
+ * InstructionSet tables) are read-only after class initialization. So one
+ * instance can be reused and called by several threads at the same time,
+ * as long as the calls use different output files.
+ */
 public interface Assembler {
-	Set<String> noArgument = new TreeSet<>(Arrays.asList("HALT","NOP","NOT"));
+	Set<String> noArgument = InstructionSet.noArgumentMnemonics();
 	
 	/**
 	 * Method to assemble a file to its executable representation. 
@@ -32,6 +38,15 @@ public interface Assembler {
 	 * otherwise the line number of a reported error.
 	 */
 	int assemble(String inputFileName, String outputFileName, StringBuilder error);
+
+	/**
+	 * Returns the class of the assembler and the settings that change its
+	 * output, so that the outputs of two assemblers can be told apart
+	 * @return the class name, followed by the settings if there are any
+	 */
+	default String getConfiguration() {
+		return getClass().getName();
+	}
 	
 	class DataPair {
 		protected int address;
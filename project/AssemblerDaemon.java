@@ -0,0 +1,287 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-lived process that assembles, loads and runs programs for clients
+ * connected to a Unix domain socket, so the tools pay the start of the JVM
+ * and the compilation of the assembler and the machine once instead of
+ * once per file. DaemonClient is the client side.
+ * <p>
+ * The requests and responses are frames: a 4-byte length, then that many
+ * bytes. A request starts with a type byte; a response with a 4-byte
+ * result. Numbers are big-endian, as in the pexe files, and strings are
+ * UTF-8 preceded by a 2-byte length, or the rest of the frame for the last
+ * one. The strings with a length prefix hold at most 0xFFFF bytes.
+ * <ul>
+ * <li>ASSEMBLE input output: the result of Assembler.assemble and the error
+ * messages. The file names are the daemon's, which runs on the same host.
+ * <li>LOAD program: clears the machine of the connection and loads a pexe
+ * file with Loader.load. The result is 0 and the message "success", or -1
+ * and the message of Loader.
+ * <li>RUN maxSteps words: runs the machine of the connection as
+ * MachineModel.run, with the rest of the frame as the words of the input
+ * port. The result is 0 then the steps and cycles (8 bytes each), a byte 1
+ * if the program halted, the pc and the accumulator, then the words
+ * written to the output port; or -1 and the message of the exception that
+ * stopped the program. A program that writes more than MAX_OUTPUT bytes
+ * is stopped with the result -1, so the response fits in a frame.
+ * <li>SHUTDOWN: the result 0, then the daemon stops accepting connections.
+ * </ul>
+ * Each connection is served by its own thread and has its own machine; the
+ * Assembler is shared by the connections.
+ */
+public class AssemblerDaemon {
+	public static final byte ASSEMBLE = 1;
+	public static final byte LOAD = 2;
+	public static final byte RUN = 3;
+	public static final byte SHUTDOWN = 4;
+	// a frame longer than this ends the connection
+	public static final int MAX_FRAME = 1 << 20;
+	// the output of a RUN request, the result and the counters use the rest
+	// of the frame
+	public static final int MAX_OUTPUT = MAX_FRAME - 29;
+	private final Assembler assembler;
+	private final Path socket;
+	private final ServerSocketChannel server;
+	private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "pippin-daemon-connection");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Binds the socket; serve() then accepts the connections
+	 * @param assembler the assembler of the ASSEMBLE requests
+	 * @param socket the path of the socket, replaced if it exists
+	 * @throws IOException if the socket cannot be bound
+	 */
+	public AssemblerDaemon(Assembler assembler, Path socket) throws IOException {
+		this.assembler = assembler;
+		this.socket = socket;
+		Files.deleteIfExists(socket);
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(socket));
+	}
+
+	/**
+	 * Accepts connections until a SHUTDOWN request or close()
+	 */
+	public void serve() throws IOException {
+		try {
+			while (true) {
+				SocketChannel channel = server.accept();
+				connections.execute(() -> serve(channel));
+			}
+		} catch (ClosedChannelException e) {
+			// closed by a SHUTDOWN request or close()
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stops accepting connections and removes the socket; the connections
+	 * that are open are served until their clients close them
+	 */
+	public void close() throws IOException {
+		server.close();
+		connections.shutdown();
+		Files.deleteIfExists(socket);
+	}
+
+	private void serve(SocketChannel channel) {
+		MachineModel model = new MachineModel();
+		try (SocketChannel c = channel) {
+			while (true) {
+				ByteBuffer request = readFrame(c);
+				if (request == null)
+					return;
+				ByteBuffer response = answer(request, model);
+				writeFrame(c, response);
+				if (request.get(0) == SHUTDOWN)
+					server.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			// a client that breaks the protocol or goes away loses its connection
+		}
+	}
+
+	private ByteBuffer answer(ByteBuffer request, MachineModel model) {
+		switch (request.get()) {
+		case ASSEMBLE: {
+			String input = getString(request);
+			String output = getString(request);
+			StringBuilder error = new StringBuilder();
+			int result = assembler.assemble(input, output, error);
+			return response(result, error.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		case LOAD: {
+			model.clear();
+			String message = Loader.load(model, new File(getRest(request)));
+			return response(message.equals("success") ? 0 : -1, message.getBytes(StandardCharsets.UTF_8));
+		}
+		case RUN: {
+			long maxSteps = request.getLong();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			model.attachInput(request.slice().asIntBuffer());
+			model.attachOutput(new RunOutput(output));
+			RunResult result;
+			try {
+				result = model.run(maxSteps);
+				model.flushOutput();
+			} catch (RuntimeException e) {
+				Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+				return response(-1, String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+			} finally {
+				model.attachOutput(null);
+			}
+			ByteBuffer buff = ByteBuffer.allocate(25 + output.size());
+			buff.putLong(result.getSteps());
+			buff.putLong(result.getCycles());
+			buff.put((byte) (result.isHalted() ? 1 : 0));
+			buff.putInt(result.getPC());
+			buff.putInt(result.getAccum());
+			buff.put(output.toByteArray());
+			return response(0, buff.array());
+		}
+		case SHUTDOWN:
+			return response(0, new byte[0]);
+		default:
+			throw new IllegalArgumentException("Unknown request " + request.get(0));
+		}
+	}
+
+	/**
+	 * The output port of a RUN request, which fails the write that would
+	 * take it past MAX_OUTPUT bytes
+	 */
+	private static class RunOutput implements WritableByteChannel {
+		private final ByteArrayOutputStream output;
+
+		RunOutput(ByteArrayOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int n = src.remaining();
+			if (output.size() + n > MAX_OUTPUT)
+				throw new IOException("Output of more than " + MAX_OUTPUT + " bytes");
+			byte[] bytes = new byte[n];
+			src.get(bytes);
+			output.write(bytes);
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static ByteBuffer response(int result, byte[] payload) {
+		ByteBuffer buff = ByteBuffer.allocate(4 + payload.length);
+		buff.putInt(result);
+		buff.put(payload);
+		buff.flip();
+		return buff;
+	}
+
+	/**
+	 * Reads a frame, returns null if the channel ends before it
+	 */
+	static ByteBuffer readFrame(ReadableByteChannel channel) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		if (!readFully(channel, length))
+			return null;
+		int n = length.getInt(0);
+		if (n < 0 || n > MAX_FRAME)
+			throw new IOException("Frame of " + n + " bytes");
+		ByteBuffer frame = ByteBuffer.allocate(n);
+		if (!readFully(channel, frame))
+			throw new EOFException("Frame of " + n + " bytes ended early");
+		frame.flip();
+		return frame;
+	}
+
+	private static boolean readFully(ReadableByteChannel channel, ByteBuffer buff) throws IOException {
+		while (buff.hasRemaining())
+			if (channel.read(buff) < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer as a frame
+	 */
+	static void writeFrame(GatheringByteChannel channel, ByteBuffer frame) throws IOException {
+		ByteBuffer[] parts = {ByteBuffer.allocate(4).putInt(0, frame.remaining()), frame};
+		while (frame.hasRemaining())
+			channel.write(parts);
+	}
+
+	/**
+	 * Puts a string with a 2-byte length
+	 * @throws IllegalArgumentException if the string has more than 0xFFFF
+	 * bytes of UTF-8
+	 */
+	static void putString(ByteBuffer buff, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF)
+			throw new IllegalArgumentException("String of " + bytes.length + " bytes");
+		buff.putShort((short) bytes.length);
+		buff.put(bytes);
+	}
+
+	static String getString(ByteBuffer buff) {
+		byte[] bytes = new byte[buff.getShort() & 0xFFFF];
+		buff.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static String getRest(ByteBuffer buff) {
+		byte[] bytes = new byte[buff.remaining()];
+		buff.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Serves on the socket given as argument, or pippin.sock in the
+	 * temporary directory, with a FullAssembler
+	 */
+	public static void main(String[] args) {
+		Path socket = args.length > 0 ? Paths.get(args[0])
+				: Paths.get(System.getProperty("java.io.tmpdir"), "pippin.sock");
+		try {
+			AssemblerDaemon daemon = new AssemblerDaemon(new FullAssembler(), socket);
+			System.out.println("Listening on " + socket);
+			daemon.serve();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+}
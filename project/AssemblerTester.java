@@ -0,0 +1,554 @@
+package project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the assemblers and of the tools built on them, with their
+ * sources and programs in a TemporaryFolder
+ */
+public class AssemblerTester {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	// The lexer finds LOD immediate in any case and rejects a hex overflow
+	public void testLODlexer() throws IOException {
+		PasmLexer lexer = new PasmLexer("lod  #-1F\r\nLOD 100000000\n".getBytes());
+		assertTrue("First line", lexer.nextLine());
+		assertEquals("LOD opcode", 3, lexer.getOpcode(0));
+		assertFalse("Lower case", lexer.isUpperCase(0));
+		assertEquals("Immediate flags", 2, lexer.getFlags(1));
+		assertTrue("Hex argument", lexer.parseHex(1, true));
+		assertEquals("Argument value", -0x1F, lexer.getValue());
+		assertTrue("Second line", lexer.nextLine());
+		assertEquals("Line number", 2, lexer.getLineNumber());
+		assertFalse("Hex overflow", lexer.parseHex(1, true));
+		assertFalse("End of source", lexer.nextLine());
+	}
+
+	@Test
+	// The lexer rejects malformed hex arguments and unknown mnemonics and counts extra tokens
+	public void testLODlexerMalformed() throws IOException {
+		PasmLexer lexer = new PasmLexer("LODX # - 80000000 7\n-80000000 lo\n".getBytes());
+		assertTrue(lexer.nextLine());
+		assertEquals("Every token counted", 5, lexer.getTokenCount());
+		assertEquals("LODX", -1, lexer.getOpcode(0));
+		assertFalse("# alone", lexer.parseHex(1, true));
+		assertFalse("Sign alone", lexer.parseHex(2, false));
+		assertFalse("Overflow", lexer.parseHex(3, false));
+		assertTrue(lexer.nextLine());
+		assertTrue("Smallest int", lexer.parseHex(0, false));
+		assertEquals(Integer.MIN_VALUE, lexer.getValue());
+		assertEquals("lo", -1, lexer.getOpcode(1));
+		assertFalse(lexer.nextLine());
+	}
+
+	@Test
+	// A channel read one byte at a time gives the lines of the array, with \r\n split between reads
+	public void testHALTlexerChannel() throws IOException {
+		byte[] source = "LOD #1\r\nHALT\r\r DATA\n0 5".getBytes();
+		PasmLexer lexer = new PasmLexer(Channels.newChannel(new ByteArrayInputStream(source) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		}));
+		int[] tokens = {2, 1, 0, 1, 2};
+		for (int i = 0; i < tokens.length; i++) {
+			assertTrue("Line " + (i + 1), lexer.nextLine());
+			assertEquals("Line number", i + 1, lexer.getLineNumber());
+			assertEquals("Tokens of line " + (i + 1), tokens[i], lexer.getTokenCount());
+			assertEquals("Only DATA indented", i == 3, lexer.startsWithWhitespace());
+		}
+		assertFalse("End of source", lexer.nextLine());
+	}
+
+	@Test
+	// One SimpleAssembler assembles a source with DATA, then reads the next source as code again
+	public void testLODsimpleAssemblerTwice() throws IOException {
+		Assembler assembler = new SimpleAssembler();
+		File exe = temp.newFile();
+		assertEquals(0, assembler.assemble(TestFixtures.pasm(temp, "HALT", "DATA", "1 2").getPath(),
+				exe.getPath(), new StringBuilder()));
+		assertEquals(0, assembler.assemble(TestFixtures.pasm(temp, "LOD #5", "HALT").getPath(),
+				exe.getPath(), new StringBuilder()));
+		MachineModel assembled = TestFixtures.load(exe);
+		assembled.run(10);
+		assertEquals("LOD read as code", 5, assembled.getAccum());
+		assertEquals("No data from the first source", 0, assembled.getData(1));
+	}
+
+	@Test
+	// One FullAssembler and one SimpleAssembler assemble LOD immediate from several threads
+	public void testLODsharedAssembler() {
+		for (Assembler assembler : new Assembler[] {new FullAssembler(), new SimpleAssembler(true)}) {
+			long correct = IntStream.range(0, 16).parallel().filter(i -> {
+				try {
+					File source = TestFixtures.pasm(temp, "LOD #" + Integer.toHexString(i), "HALT", "DATA", "0 " + Integer.toHexString(i));
+					File exe = temp.newFile();
+					if (assembler.assemble(source.getPath(), exe.getPath(), new StringBuilder()) != 0)
+						return false;
+					MachineModel assembled = TestFixtures.load(exe);
+					assembled.run(10);
+					return assembled.getAccum() == i && assembled.getData(0) == i;
+				} catch (IOException e) {
+					return false;
+				}
+			}).count();
+			assertEquals("Every thread assembled its program", 16, correct);
+		}
+	}
+
+	@Test
+	// The batch assembler assembles a tree and reports an illegal HALT argument
+	public void testHALTbatchAssembler() throws IOException {
+		Path root = temp.getRoot().toPath();
+		Path sub = Files.createDirectory(root.resolve("sub"));
+		Path report = root.resolve("report.tsv");
+		Files.write(root.resolve("a.pasm"), Arrays.asList("LOD #1", "HALT"));
+		Files.write(sub.resolve("b.pasm"), Arrays.asList("HALT 5"));
+		assertEquals("One source has errors", 1, new BatchAssembler(new FullAssembler(), 2).assemble(root, report));
+		assertTrue("a.pexe written", Files.exists(root.resolve("a.pexe")));
+		assertFalse("b.pexe not written", Files.exists(sub.resolve("b.pexe")));
+		assertEquals(Arrays.asList("a.pasm\t0",
+				"sub/b.pasm\t1\tError on line 1: this mnemonic cannot take arguments"),
+				Files.readAllLines(report));
+	}
+
+	@Test
+	// An exception of the assembler is reported on the line of its source and the other ones are assembled
+	public void testHALTbatchAssemblerException() throws IOException {
+		Path root = temp.getRoot().toPath();
+		Files.write(root.resolve("a.pasm"), Arrays.asList("HALT"));
+		Files.write(root.resolve("b.pasm"), Arrays.asList("HALT"));
+		Assembler failing = (input, output, error) -> {
+			if (input.endsWith("a.pasm"))
+				throw new IllegalStateException("a");
+			return new FullAssembler().assemble(input, output, error);
+		};
+		Path report = root.resolve("report.tsv");
+		assertEquals(1, new BatchAssembler(failing, 3).assemble(root, report));
+		assertEquals(Arrays.asList("a.pasm\t-1\tUnexpected exception java.lang.IllegalStateException: a",
+				"b.pasm\t0"), Files.readAllLines(report));
+		try {
+			new BatchAssembler(failing, 1).assemble(root.resolve("none"), report);
+			fail("Missing root");
+		} catch (NoSuchFileException e) {
+			assertEquals("Report kept", 2, Files.readAllLines(report).size());
+		}
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	// A batch needs a thread
+	public void testHALTbatchAssemblerNoThread() {
+		new BatchAssembler(new FullAssembler(), 0);
+	}
+
+	@Test
+	// The assembly cache returns a stored HALT program and a stored error
+	public void testHALTcachingAssembler() throws IOException {
+		Path root = temp.getRoot().toPath();
+		Path source = TestFixtures.pasm(temp, "HALT").toPath();
+		CachingAssembler assembler = new CachingAssembler(new FullAssembler(), root.resolve("cache"), 100, true);
+		for (int i = 0; i < 2; i++) {
+			Path exe = root.resolve("a" + i + ".pexe");
+			assertEquals("No error", 0, assembler.assemble(source.toString(), exe.toString(), new StringBuilder()));
+			assertArrayEquals(new byte[] {0b00010001, -1}, Files.readAllBytes(exe));
+		}
+		assertEquals("Second call is a hit", 1, assembler.getHits());
+		Files.write(source, Arrays.asList("HALT 5"));
+		StringBuilder error = new StringBuilder();
+		assertEquals("Error on line 1", 1, assembler.assemble(source.toString(), root.resolve("b.pexe").toString(), error));
+		StringBuilder cachedError = new StringBuilder();
+		assertEquals("Cached error", 1, assembler.assemble(source.toString(), root.resolve("b.pexe").toString(), cachedError));
+		assertEquals(error.toString(), cachedError.toString());
+		assertEquals("Two hits", 2, assembler.getHits());
+	}
+
+	@Test
+	// The key of a stored HALT program is the SHA-256 digest of the configuration and the source
+	public void testHALTcachingAssemblerKey() throws IOException {
+		assertEquals("b84582f6c521cf6e725c0e88284bb4701be6c7078e8e677d798ddaf9492b9e43",
+				CachingAssembler.key("abc".getBytes(), "HALT".getBytes()));
+		assertTrue("Configuration and source kept apart", !CachingAssembler.key("abcH".getBytes(), "ALT".getBytes())
+				.equals(CachingAssembler.key("abc".getBytes(), "HALT".getBytes())));
+		Path cache = temp.getRoot().toPath().resolve("cache");
+		File source = TestFixtures.pasm(temp, "HALT");
+		CachingAssembler assembler = new CachingAssembler(new FullAssembler(), cache, 100, false);
+		assertEquals(0, assembler.assemble(source.getPath(), temp.newFile().getPath(), new StringBuilder()));
+		String key = CachingAssembler.key((new FullAssembler().getConfiguration() + " " + CachingAssembler.VERSION)
+				.getBytes(), Files.readAllBytes(source.toPath()));
+		assertTrue("Stored as " + key, Files.exists(cache.resolve(key + ".pexe")));
+	}
+
+	@Test
+	// SimpleAssembler with and without the peephole optimizer do not share the stored NOP program
+	public void testNOPcachingAssemblerConfiguration() throws IOException {
+		Path cache = temp.getRoot().toPath().resolve("cache");
+		String source = TestFixtures.pasm(temp, "NOP", "HALT").getPath();
+		File exe = temp.newFile();
+		CachingAssembler plain = new CachingAssembler(new SimpleAssembler(false), cache, 100, false);
+		assertEquals(0, plain.assemble(source, exe.getPath(), new StringBuilder()));
+		assertArrayEquals(new byte[] {0, 0b00010001, -1}, Files.readAllBytes(exe.toPath()));
+		CachingAssembler optimizing = new CachingAssembler(new SimpleAssembler(true), cache, 100, false);
+		assertEquals(0, optimizing.assemble(source, exe.getPath(), new StringBuilder()));
+		assertEquals("Other key", 0, optimizing.getHits());
+		assertArrayEquals("NOP removed", new byte[] {0b00010001, -1}, Files.readAllBytes(exe.toPath()));
+		assertEquals(0, new CachingAssembler(new SimpleAssembler(false), cache, 100, false)
+				.assemble(source, exe.getPath(), new StringBuilder()));
+		assertArrayEquals("Same key", new byte[] {0, 0b00010001, -1}, Files.readAllBytes(exe.toPath()));
+	}
+
+	@Test
+	// The program used least recently is removed when the cache grows over its bound
+	public void testHALTcachingAssemblerEviction() throws IOException {
+		Path cache = temp.getRoot().toPath().resolve("cache");
+		CachingAssembler assembler = new CachingAssembler(new FullAssembler(), cache, 6, false);
+		String exe = temp.newFile().getPath();
+		String a = TestFixtures.pasm(temp, "HALT").getPath();
+		String b = TestFixtures.pasm(temp, "NOP", "HALT").getPath();
+		String c = TestFixtures.pasm(temp, "NOT", "HALT").getPath();
+		assertEquals(0, assembler.assemble(a, exe, new StringBuilder()));
+		assertEquals(0, assembler.assemble(b, exe, new StringBuilder()));
+		assertEquals(5, assembler.getSize());
+		// the program of a is the file of 2 bytes, make it the oldest
+		try (Stream<Path> files = Files.list(cache)) {
+			for (Path file : (Iterable<Path>) files::iterator)
+				Files.setLastModifiedTime(file, FileTime.fromMillis(Files.size(file) == 2 ? 1000 : 2000));
+		}
+		assertEquals(0, assembler.assemble(c, exe, new StringBuilder()));
+		assertEquals("a removed", 6, assembler.getSize());
+		assertEquals(0, assembler.assemble(b, exe, new StringBuilder()));
+		assertEquals("b kept", 1, assembler.getHits());
+		assertEquals(0, assembler.assemble(a, exe, new StringBuilder()));
+		assertEquals("a assembled again", 4, assembler.getMisses());
+		assertTrue("Size bounded", assembler.getSize() <= 6);
+	}
+
+	@Test
+	// A corrupted stored error is assembled again and a missing source is not stored
+	public void testHALTcachingAssemblerBadEntries() throws IOException {
+		Path cache = temp.getRoot().toPath().resolve("cache");
+		CachingAssembler assembler = new CachingAssembler(new FullAssembler(), cache, 100, false);
+		String source = TestFixtures.pasm(temp, "HALT 5").getPath();
+		String exe = temp.newFile().getPath();
+		assertEquals(1, assembler.assemble(source, exe, new StringBuilder()));
+		try (Stream<Path> files = Files.list(cache)) {
+			for (Path file : (Iterable<Path>) files::iterator)
+				Files.write(file, "garbage\ntext".getBytes());
+		}
+		StringBuilder error = new StringBuilder();
+		assertEquals("Assembled again", 1, assembler.assemble(source, exe, error));
+		assertEquals("\nError on line 1: this mnemonic cannot take arguments", error.toString());
+		assertEquals(2, assembler.getMisses());
+		assertEquals(1, assembler.assemble(source, exe, new StringBuilder()));
+		assertEquals("Stored again", 1, assembler.getHits());
+		String missing = new File(temp.getRoot(), "none.pasm").getPath();
+		assertEquals(-1, assembler.assemble(missing, exe, new StringBuilder()));
+		assertEquals(-1, assembler.assemble(missing, exe, new StringBuilder()));
+		assertEquals("Not stored", 1, assembler.getHits());
+	}
+
+	@Test
+	// An edited LOD is encoded again without assembling the whole source
+	public void testLODassemblySession() {
+		AssemblySession session = new AssemblySession(Arrays.asList("LOD #1", "HALT", "DATA", "0 5"));
+		session.replaceLines(1, 1, Arrays.asList("LOD #2F"));
+		assertEquals("No error", 0, session.check(new StringBuilder()));
+		assertArrayEquals(new byte[] {0b00011011, 0, 0, 0, 0x2F, 0b00010001, -1, 0, 0, 0, 0, 0, 0, 0, 5},
+				session.getOutput());
+		assertEquals("No rebuild", 0, session.getRebuilds());
+		session.replaceLines(2, 0, Arrays.asList("LOD 1 2"));
+		StringBuilder error = new StringBuilder();
+		assertEquals("Error on line 2", 2, session.check(error));
+		assertEquals("\nError on line 2: this mnemonic has too many arguments", error.toString());
+		session.replaceLines(1, 0, Arrays.asList("NOT"));
+		error = new StringBuilder();
+		assertEquals("Error moved to line 3", 3, session.check(error));
+		assertEquals("\nError on line 3: this mnemonic has too many arguments", error.toString());
+	}
+
+	@Test
+	// Edits before and after the DATA line encode each line in its section, as FullAssembler does
+	public void testLODassemblySessionData() throws IOException {
+		AssemblySession session = new AssemblySession(Arrays.asList("LOD #1", "DATA", "0 5"));
+		String[][] edits = {{"1", "0", "NOT", "ADD #2"}, {"5", "1", "1 6"}, {"4", "0", "SUB #3"},
+				{"1", "1"}, {"6", "0", "2 7", "3 8"}};
+		File exe = temp.newFile();
+		for (String[] edit : edits) {
+			session.replaceLines(Integer.parseInt(edit[0]), Integer.parseInt(edit[1]),
+					Arrays.asList(edit).subList(2, edit.length));
+			List<String> source = new ArrayList<>();
+			for (int i = 1; i <= session.getLineCount(); i++)
+				source.add(session.getLine(i));
+			File pasm = TestFixtures.pasm(temp, source.toArray(new String[0]));
+			assertEquals(0, new FullAssembler().assemble(pasm.getPath(), exe.getPath(), new StringBuilder()));
+			assertArrayEquals("After the edit at line " + edit[0], Files.readAllBytes(exe.toPath()), session.getOutput());
+		}
+		assertEquals("No rebuild", 0, session.getRebuilds());
+		assertEquals(7, session.getLineCount());
+	}
+
+	@Test
+	// A session with errors or an edit outside the source is not saved
+	public void testHALTassemblySessionErrors() throws IOException {
+		AssemblySession session = new AssemblySession(Arrays.asList("HALT", "DATA", "0 5"));
+		try {
+			session.replaceLines(3, 2, Arrays.asList("HALT"));
+			fail("Lines 3 to 4");
+		} catch (IndexOutOfBoundsException e) {
+			assertEquals("Lines 3 to 4 are not in the source", e.getMessage());
+		}
+		session.replaceLines(3, 1, Arrays.asList("0 5 6"));
+		File exe = new File(temp.getRoot(), "a.pexe");
+		StringBuilder error = new StringBuilder();
+		assertEquals("Error on line 3", 3, session.save(exe.getPath(), error));
+		assertEquals("\nError on line 3: data must have length 2", error.toString());
+		assertFalse("Not saved", exe.exists());
+		session.replaceLines(3, 1, Arrays.asList("0 5"));
+		error = new StringBuilder();
+		assertEquals("Directory", -1, session.save(temp.getRoot().getPath(), error));
+		assertEquals("\nError: Unable to write the assembled program to the output file", error.toString());
+		assertEquals(0, session.save(exe.getPath(), new StringBuilder()));
+		assertArrayEquals(new byte[] {0b00010001, -1, 0, 0, 0, 0, 0, 0, 0, 5}, Files.readAllBytes(exe.toPath()));
+	}
+
+	@Test
+	// A streamed program with a LOD spanning buffers is the SimpleAssembler program
+	public void testLODstreamingAssembler() throws IOException {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < StreamingAssembler.BUFFER_SIZE; i++)
+			source.append("LOD #" + Integer.toHexString(i) + "\n");
+		source.append("HALT\nDATA\n1 -2\n");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals("No error", 0, new StreamingAssembler().assemble(
+				new ByteArrayInputStream(source.toString().getBytes()), Channels.newChannel(bytes), new StringBuilder()));
+		byte[] program = bytes.toByteArray();
+		assertEquals(5*StreamingAssembler.BUFFER_SIZE + 10, program.length);
+		assertArrayEquals(new byte[] {0b00011011, 0, 0, 0x1F, -1}, Arrays.copyOfRange(program, 5*0x1FFF, 5*0x1FFF + 5));
+		assertArrayEquals(new byte[] {0b00010001, -1, 0, 0, 0, 1, -1, -1, -1, -2},
+				Arrays.copyOfRange(program, program.length - 10, program.length));
+		StringBuilder error = new StringBuilder();
+		assertEquals("Error on line 2", 2, new StreamingAssembler().assemble(
+				new ByteArrayInputStream("HALT\nLOD\n".getBytes()), Channels.newChannel(bytes), error));
+		assertEquals("\nError on line 2: illegal instruction", error.toString());
+	}
+
+	@Test
+	// An error after the first buffer was written deletes the output file, as does a missing source
+	public void testLODstreamingAssemblerDeletesOutput() throws IOException {
+		String[] source = new String[StreamingAssembler.BUFFER_SIZE + 1];
+		Arrays.fill(source, "LOD #1");
+		source[source.length - 1] = "LOD #1G";
+		File exe = temp.newFile();
+		StringBuilder error = new StringBuilder();
+		assertEquals(source.length, new StreamingAssembler().assemble(
+				TestFixtures.pasm(temp, source).getPath(), exe.getPath(), error));
+		assertEquals("\nError on line " + source.length + ": illegal instruction", error.toString());
+		assertFalse("Partial output deleted", exe.exists());
+		Files.write(exe.toPath(), new byte[] {1});
+		error = new StringBuilder();
+		assertEquals(-1, new StreamingAssembler().assemble(
+				new File(temp.getRoot(), "none.pasm").getPath(), exe.getPath(), error));
+		assertEquals("\nUnexplained IO Exception", error.toString());
+		assertFalse("Old output deleted", exe.exists());
+	}
+
+	/**
+	 * Runs serve() of a daemon on a new thread
+	 */
+	private static Thread start(AssemblerDaemon daemon) {
+		Thread retVal = new Thread(() -> {
+			try {
+				daemon.serve();
+			} catch (IOException e) {
+				// the test fails on the client side
+			}
+		});
+		retVal.start();
+		return retVal;
+	}
+
+	@Test
+	// The daemon assembles, loads and runs a LOD from the input port for a client
+	public void testLODassemblerDaemon() throws Exception {
+		Path root = temp.getRoot().toPath();
+		Path source = TestFixtures.pasm(temp, "LOD 200", "ADD #1", "STO 201", "HALT").toPath();
+		AssemblerDaemon daemon = new AssemblerDaemon(new FullAssembler(), root.resolve("daemon.sock"));
+		Thread server = start(daemon);
+		try (DaemonClient client = new DaemonClient(root.resolve("daemon.sock"))) {
+			String program = root.resolve("a.pexe").toString();
+			assertEquals("No error", 0, client.assemble(source.toString(), program, new StringBuilder()));
+			assertEquals("success", client.load(program));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			RunResult result = client.run(100, new int[] {0x41}, Channels.newChannel(output));
+			assertTrue("Halted", result.isHalted());
+			assertEquals(4, result.getSteps());
+			assertEquals(0x42, result.getAccum());
+			assertArrayEquals(new byte[] {0, 0, 0, 0x42}, output.toByteArray());
+			client.shutdown();
+			server.join(10000);
+			assertFalse("Daemon stopped", server.isAlive());
+		} finally {
+			daemon.close();
+		}
+	}
+
+	@Test
+	// A program that writes more than a frame holds is stopped, the connection stays open
+	public void testSTOassemblerDaemonOutputLimit() throws Exception {
+		Path root = temp.getRoot().toPath();
+		Path source = TestFixtures.pasm(temp, "LOD #1", "STO 201", "JUMP -1").toPath();
+		AssemblerDaemon daemon = new AssemblerDaemon(new FullAssembler(), root.resolve("daemon.sock"));
+		Thread server = start(daemon);
+		try (DaemonClient client = new DaemonClient(root.resolve("daemon.sock"))) {
+			String program = root.resolve("a.pexe").toString();
+			assertEquals("No error", 0, client.assemble(source.toString(), program, new StringBuilder()));
+			assertEquals("success", client.load(program));
+			try {
+				client.run(10000000, new int[0], null);
+				fail("Output past the frame");
+			} catch (IllegalStateException e) {
+				assertEquals("Output of more than " + AssemblerDaemon.MAX_OUTPUT + " bytes", e.getMessage());
+			}
+			char[] name = new char[0x10000];
+			Arrays.fill(name, 'a');
+			try {
+				client.assemble(new String(name), program, new StringBuilder());
+				fail("File name of 0x10000 bytes");
+			} catch (IllegalArgumentException e) {
+				assertEquals("String of 65536 bytes", e.getMessage());
+			}
+			assertEquals("success", client.load(program));
+			client.shutdown();
+			server.join(10000);
+			assertFalse("Daemon stopped", server.isAlive());
+		} finally {
+			daemon.close();
+		}
+	}
+
+	@Test
+	// A malformed frame ends its connection only, the daemon serves the next client
+	public void testHALTassemblerDaemonMalformedFrame() throws Exception {
+		Path socket = temp.getRoot().toPath().resolve("daemon.sock");
+		AssemblerDaemon daemon = new AssemblerDaemon(new FullAssembler(), socket);
+		Thread server = start(daemon);
+		try {
+			byte[][] frames = {
+					{0x7F, -1, -1, -1}, // longer than MAX_FRAME
+					{0, 0, 0, 1, 9}, // unknown request
+					{0, 0, 0, 3, AssemblerDaemon.ASSEMBLE, 0, 9}, // string past the end
+					{0, 0, 0, 0}}; // no type
+			for (byte[] frame : frames) {
+				try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+					channel.write(ByteBuffer.wrap(frame));
+					assertEquals("Connection closed", -1, channel.read(ByteBuffer.allocate(4)));
+				}
+			}
+			try (DaemonClient client = new DaemonClient(socket)) {
+				String program = temp.getRoot().toPath().resolve("a.pexe").toString();
+				assertEquals(0, client.assemble(TestFixtures.pasm(temp, "HALT").getPath(), program, new StringBuilder()));
+				assertEquals("success", client.load(program));
+				client.shutdown();
+			}
+			server.join(10000);
+			assertFalse("Daemon stopped", server.isAlive());
+		} finally {
+			daemon.close();
+		}
+	}
+
+	@Test
+	// readFrame returns null at the end of the channel and rejects bad lengths and cut frames
+	public void testHALTassemblerDaemonReadFrame() throws IOException {
+		assertNull(AssemblerDaemon.readFrame(Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+		byte[][] frames = {{-1, -1, -1, -1}, {0, 0x10, 0, 1}, {0, 0, 0, 2, 1}};
+		for (byte[] frame : frames) {
+			try {
+				AssemblerDaemon.readFrame(Channels.newChannel(new ByteArrayInputStream(frame)));
+				fail("Frame " + Arrays.toString(frame));
+			} catch (IOException e) {
+				assertEquals("Cut frame", frame.length == 5, e instanceof EOFException);
+			}
+		}
+		ByteBuffer frame = AssemblerDaemon.readFrame(Channels.newChannel(
+				new ByteArrayInputStream(new byte[] {0, 0, 0, 1, AssemblerDaemon.SHUTDOWN})));
+		assertEquals(AssemblerDaemon.SHUTDOWN, frame.get());
+		assertFalse(frame.hasRemaining());
+	}
+
+	@Test
+	// FullAssembler encodes LOD immediate and the data pairs
+	public void testLODfullAssembler() throws IOException {
+		File source = TestFixtures.pasm(temp, "LOD #1F", "HALT", "DATA", "3 -2");
+		File exe = temp.newFile();
+		StringBuilder error = new StringBuilder();
+		assertEquals("No error", 0, new FullAssembler().assemble(source.getPath(), exe.getPath(), error));
+		MachineModel assembled = TestFixtures.load(exe);
+		assembled.run(10);
+		assertEquals("Accumulator is 0x1F", 0x1F, assembled.getAccum());
+		assertEquals("Data[3] is -2", -2, assembled.getData(3));
+	}
+
+	@Test
+	// FullAssembler reports the line of each kind of error and leaves the output file alone
+	public void testHALTfullAssemblerErrors() throws IOException {
+		String[][] sources = {
+				{"LOD #1", "", "HALT"}, {"lod #1", "HALT"}, {"LOD #1", " HALT"},
+				{"LOD #1G", "HALT"}, {"FOO", "HALT"}, {"LOD", "HALT"}, {"HALT 5"},
+				{"HALT", "data"}, {"HALT", "DATA", "1 2 3"}, {"HALT", "DATA", "X 2"}};
+		int[] lines = {2, 1, 2, 1, 1, 1, 1, 2, 3, 3};
+		String[] messages = {
+				"\nIllegal blank line in the source file",
+				"\nError on line 1: mnemonic must be upper case",
+				"\nLine starts with illegal white space",
+				"\nError on line 1: argument is not a hex number",
+				"\nError on line 1: illegal mnemonic",
+				"\nError on line 1: this mnemonic is missing an argument",
+				"\nError on line 1: this mnemonic cannot take arguments",
+				"\nLine does not have DATA in upper case",
+				"\nError on line 3: data must have length 2",
+				"\nError on line 3: data has non-numeric memory address"};
+		File exe = temp.newFile();
+		Files.write(exe.toPath(), new byte[] {1, 2});
+		for (int i = 0; i < sources.length; i++) {
+			StringBuilder error = new StringBuilder();
+			assertEquals(messages[i], lines[i], new FullAssembler().assemble(
+					TestFixtures.pasm(temp, sources[i]).getPath(), exe.getPath(), error));
+			assertEquals(messages[i], error.toString());
+		}
+		assertArrayEquals("Output not written", new byte[] {1, 2}, Files.readAllBytes(exe.toPath()));
+		assertEquals("Missing source", -1, new FullAssembler().assemble(
+				new File(temp.getRoot(), "none.pasm").getPath(), exe.getPath(), new StringBuilder()));
+	}
+}
@@ -0,0 +1,320 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A source being edited, kept assembled line by line so that an edit only
+ * lexes and encodes the lines it changes. Each line keeps its encoding:
+ * nothing for a blank line or a line with errors, 1 or 5 bytes for an
+ * instruction, the byte -1 for the DATA separator and 8 bytes for a data
+ * pair, so the pexe file is the concatenation of the encodings (with -1
+ * at the end if there is no DATA line).
+ * <p>
+ * The encodings are kept in a gap buffer whose gap is at the line of the
+ * last edit, so an edit moves the bytes between the last edit and this
+ * one, inserts the new encodings in the gap and needs no table of byte
+ * offsets: the cost of an edit is proportional to its size and to its
+ * distance from the previous one. An edit that removes or adds a DATA
+ * line changes the section of all the lines after it, so the whole
+ * source is assembled again.
+ * <p>
+ * The lines are checked with the messages of FullAssembler, which check()
+ * makes again for the lines with errors, since their numbers change. Unlike
+ * FullAssembler, every line is checked, including the first line after
+ * an illegal blank line. A session is used by a single thread.
+ */
+public class AssemblySession {
+	private static class Line {
+		String text;
+		boolean blank;
+		boolean separator;
+		int size;
+		boolean correct;
+	}
+
+	private List<Line> lines = new ArrayList<>();
+	private byte[] buff = new byte[1024];
+	private int gapStart = 0;
+	private int gapEnd = buff.length;
+	// the lines before gapLine are encoded before the gap
+	private int gapLine = 0;
+	private int errorLines = 0;
+	private int blankLines = 0;
+	private int separators = 0;
+	// the index of the first DATA line, -1 if there is none
+	private int firstSeparator = -1;
+	private long rebuilds = 0;
+
+	/**
+	 * @param source the lines of the source
+	 */
+	public AssemblySession(List<String> source) {
+		lines.addAll(lex(source));
+		rebuild();
+	}
+
+	public static AssemblySession open(Path source) throws IOException {
+		return new AssemblySession(Files.readAllLines(source, StandardCharsets.ISO_8859_1));
+	}
+
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	public String getLine(int lineNumber) {
+		return lines.get(lineNumber - 1).text;
+	}
+
+	/**
+	 * Returns the number of times the whole source was assembled again
+	 * because an edit changed a DATA line
+	 */
+	public long getRebuilds() {
+		return rebuilds;
+	}
+
+	/**
+	 * Replaces lines of the source
+	 * @param first the number of the first line replaced, from 1 to
+	 * getLineCount() + 1
+	 * @param count the number of lines replaced, 0 to insert
+	 * @param newLines the lines that replace them
+	 */
+	public void replaceLines(int first, int count, List<String> newLines) {
+		int from = first - 1;
+		if (from < 0 || count < 0 || from + count > lines.size())
+			throw new IndexOutOfBoundsException("Lines " + first + " to " + (first + count - 1)
+					+ " are not in the source");
+		boolean rebuild = false;
+		for (int k = from; k < from + count; k++)
+			rebuild |= lines.get(k).separator;
+		List<Line> parsed = lex(newLines);
+		for (Line line : parsed)
+			rebuild |= line.separator;
+		moveGap(from);
+		for (int k = from; k < from + count; k++) {
+			Line line = lines.get(k);
+			gapEnd += line.size;
+			count(line, -1);
+		}
+		lines.subList(from, from + count).clear();
+		lines.addAll(from, parsed);
+		if (rebuild) {
+			rebuilds++;
+			rebuild();
+			return;
+		}
+		// the edit has no DATA line, so the first one only moves with the lines after the edit
+		if (firstSeparator >= from)
+			firstSeparator += parsed.size() - count;
+		boolean code = firstSeparator < 0 || firstSeparator > from;
+		for (int k = 0; k < parsed.size(); k++)
+			encode(parsed.get(k), from + k + 1, code);
+	}
+
+	/**
+	 * Finds the blank and DATA lines, which decide how the other lines
+	 * are encoded
+	 */
+	private static List<Line> lex(List<String> texts) {
+		List<Line> retVal = new ArrayList<>(texts.size());
+		for (String text : texts) {
+			Line line = new Line();
+			line.text = text;
+			PasmLexer lexer = new PasmLexer(text.getBytes(StandardCharsets.ISO_8859_1));
+			try {
+				lexer.nextLine();
+			} catch (IOException e) {
+				// not possible, the lexer reads an array
+			}
+			line.blank = lexer.getTokenCount() == 0;
+			line.separator = lexer.getTokenCount() == 1 && lexer.isData(0);
+			retVal.add(line);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Checks a line and writes its encoding if it has no error
+	 * @param firstSeparator true if no DATA line comes before the line
+	 * @return false if an error was reported
+	 */
+	private static boolean check(Line line, int lineNumber, boolean code, boolean firstSeparator,
+			StringBuilder error, DataOutputStream out) {
+		int length = error.length();
+		PasmLexer lexer = new PasmLexer(line.text.getBytes(StandardCharsets.ISO_8859_1));
+		try {
+			lexer.nextLine();
+			if (!line.blank && lexer.startsWithWhitespace())
+				error.append("\nLine starts with illegal white space");
+			if (line.separator && firstSeparator) {
+				if (!lexer.isUpperCase(0))
+					error.append("\nLine does not have DATA in upper case");
+				out.writeByte(-1);
+			} else if (line.separator) {
+				// as in FullAssembler, another DATA line is also a bad data line
+				error.append("\nFile contains more than one DATA seperator");
+				FullAssembler.dataLine(lexer, lineNumber, error, out);
+			} else if (!line.blank && code)
+				FullAssembler.codeLine(lexer, lineNumber, error, out);
+			else if (!line.blank)
+				FullAssembler.dataLine(lexer, lineNumber, error, out);
+		} catch (IOException e) {
+			// not possible, the lexer reads an array and out writes to one
+		}
+		return error.length() == length;
+	}
+
+	/**
+	 * Checks and encodes a line at the start of the gap
+	 */
+	private void encode(Line line, int lineNumber, boolean code) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+		line.correct = check(line, lineNumber, code, separators == 0, new StringBuilder(),
+				new DataOutputStream(bytes));
+		line.size = line.correct ? bytes.size() : 0;
+		if (gapEnd - gapStart < line.size) {
+			int grow = Math.max(buff.length, line.size);
+			byte[] larger = new byte[buff.length + grow];
+			System.arraycopy(buff, 0, larger, 0, gapStart);
+			System.arraycopy(buff, gapEnd, larger, gapEnd + grow, buff.length - gapEnd);
+			gapEnd += grow;
+			buff = larger;
+		}
+		if (line.correct)
+			System.arraycopy(bytes.toByteArray(), 0, buff, gapStart, line.size);
+		gapStart += line.size;
+		gapLine = lineNumber;
+		count(line, 1);
+	}
+
+	private void count(Line line, int sign) {
+		if (!line.correct)
+			errorLines += sign;
+		if (line.blank)
+			blankLines += sign;
+		if (line.separator)
+			separators += sign;
+	}
+
+	/**
+	 * Moves the gap to the start of the encoding of a line
+	 */
+	private void moveGap(int line) {
+		while (gapLine < line) {
+			int size = lines.get(gapLine++).size;
+			System.arraycopy(buff, gapEnd, buff, gapStart, size);
+			gapStart += size;
+			gapEnd += size;
+		}
+		while (gapLine > line) {
+			int size = lines.get(--gapLine).size;
+			gapStart -= size;
+			gapEnd -= size;
+			System.arraycopy(buff, gapStart, buff, gapEnd, size);
+		}
+	}
+
+	private void rebuild() {
+		gapStart = 0;
+		gapEnd = buff.length;
+		gapLine = 0;
+		errorLines = 0;
+		blankLines = 0;
+		separators = 0;
+		firstSeparator = -1;
+		boolean code = true;
+		for (int k = 0; k < lines.size(); k++) {
+			Line line = lines.get(k);
+			encode(line, k + 1, code);
+			if (line.separator && code) {
+				firstSeparator = k;
+				code = false;
+			}
+		}
+	}
+
+	/**
+	 * Reports the errors of the source as Assembler.assemble does
+	 * @param error receives the error messages
+	 * @return 0 if the source has no error, otherwise the number of the
+	 * last line with an error
+	 */
+	public int check(StringBuilder error) {
+		int trailing = 0;
+		for (int k = lines.size() - 1; k >= 0 && lines.get(k).blank; k--)
+			trailing++;
+		if (errorLines == 0 && blankLines == trailing)
+			return 0;
+		int retVal = 0;
+		boolean blankLineReported = blankLines == trailing;
+		boolean code = true;
+		DataOutputStream ignored = new DataOutputStream(new ByteArrayOutputStream());
+		for (int k = 0; k < lines.size(); k++) {
+			Line line = lines.get(k);
+			if (line.blank && !blankLineReported) {
+				error.append("\nIllegal blank line in the source file");
+				retVal = k + 1;
+				blankLineReported = true;
+			}
+			// the messages are made again, since the line numbers change
+			if (!line.correct) {
+				check(line, k + 1, code, code, error, ignored);
+				retVal = k + 1;
+			}
+			if (line.separator)
+				code = false;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the pexe encoding of the source, which is correct only if
+	 * check() finds no error
+	 */
+	public byte[] getOutput() {
+		int after = buff.length - gapEnd;
+		byte[] retVal = new byte[gapStart + after + (separators == 0 ? 1 : 0)];
+		System.arraycopy(buff, 0, retVal, 0, gapStart);
+		System.arraycopy(buff, gapEnd, retVal, gapStart, after);
+		if (separators == 0)
+			retVal[retVal.length - 1] = -1;
+		return retVal;
+	}
+
+	/**
+	 * Saves the pexe file of the source if it has no error
+	 * @param outputFileName the pexe file
+	 * @param error receives the error messages
+	 * @return 0 if the file was saved, -1 if it could not be written,
+	 * otherwise the number of the last line with an error
+	 */
+	public int save(String outputFileName, StringBuilder error) {
+		int retVal = check(error);
+		if (retVal != 0)
+			return retVal;
+		ByteBuffer[] parts = {ByteBuffer.wrap(buff, 0, gapStart),
+				ByteBuffer.wrap(buff, gapEnd, buff.length - gapEnd),
+				ByteBuffer.wrap(new byte[] {-1}, 0, separators == 0 ? 1 : 0)};
+		try (FileChannel channel = FileChannel.open(Path.of(outputFileName), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (Arrays.stream(parts).anyMatch(ByteBuffer::hasRemaining))
+				channel.write(parts);
+		} catch (IOException e) {
+			error.append("\nError: Unable to write the assembled program to the output file");
+			return -1;
+		}
+		return 0;
+	}
+}
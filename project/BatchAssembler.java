@@ -0,0 +1,124 @@
+package project;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Assembles every .pasm file of a directory tree on a pool of threads that
+ * share one Assembler. The .pexe file of a source is written next to it
+ * with the same name, as FilesMgr proposes. The tree is walked while the
+ * sources are assembled, and at most two sources per thread wait for a
+ * thread, so the memory used does not grow with the size of the tree.
+ * <p>
+ * The report has one line per source, sorted by path, with tab-separated
+ * fields: the path of the source relative to the root with / separators,
+ * the value returned by Assembler.assemble (0 for success, -1 if a file
+ * could not be read or written, otherwise the line of an error) and one
+ * field per error message.
+ */
+public class BatchAssembler {
+	private final Assembler assembler;
+	private final int threads;
+
+	/**
+	 * @param assembler the assembler, which is called by several threads
+	 * @param threads the number of threads
+	 */
+	public BatchAssembler(Assembler assembler, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.assembler = assembler;
+		this.threads = threads;
+	}
+
+	/**
+	 * Assembles the sources of a directory tree
+	 * @param root the root of the tree
+	 * @param reportFile the file that receives the report
+	 * @return the number of sources that were not assembled
+	 * @throws IOException if the tree cannot be walked or the report
+	 * cannot be written
+	 */
+	public int assemble(Path root, Path reportFile) throws IOException {
+		Map<String, String> lines = new ConcurrentSkipListMap<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Semaphore slots = new Semaphore(2*threads);
+		try (Stream<Path> paths = Files.walk(root)) {
+			Iterator<Path> sources = paths
+					.filter(p -> p.getFileName().toString().endsWith(".pasm") && Files.isRegularFile(p))
+					.iterator();
+			while (sources.hasNext()) {
+				Path source = sources.next();
+				slots.acquire();
+				pool.execute(() -> {
+					try {
+						String name = root.relativize(source).toString().replace('\\', '/');
+						lines.put(name, name + "\t" + assembleFile(source));
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while assembling " + root);
+		} finally {
+			pool.shutdown();
+		}
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while assembling " + root);
+		}
+		Files.write(reportFile, lines.values());
+		return (int) lines.values().stream().filter(line -> !line.split("\t")[1].equals("0")).count();
+	}
+
+	/**
+	 * Assembles one source and returns the fields of its report line after
+	 * the path
+	 */
+	private String assembleFile(Path source) {
+		String name = source.toString();
+		String output = name.substring(0, name.length() - "pasm".length()) + "pexe";
+		StringBuilder error = new StringBuilder();
+		int retVal;
+		try {
+			retVal = assembler.assemble(name, output, error);
+		} catch (RuntimeException e) {
+			error.append("\nUnexpected exception " + e);
+			retVal = -1;
+		}
+		StringBuilder buff = new StringBuilder(Integer.toString(retVal));
+		for (String message : error.toString().split("\n"))
+			if (message.length() > 0)
+				buff.append("\t" + message.replace('\t', ' '));
+		return buff.toString();
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Enter the directory of the sources: ");
+		try (Scanner keyboard = new Scanner(System.in)) {
+			Path root = Paths.get(keyboard.nextLine());
+			BatchAssembler batch = new BatchAssembler(new FullAssembler(),
+					Runtime.getRuntime().availableProcessors());
+			int failed = batch.assemble(root, root.resolve("assembly-report.tsv"));
+			System.out.println("sources with errors = " + failed);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+}
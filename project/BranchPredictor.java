@@ -0,0 +1,164 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * A model of a branch predictor. When it is attached with
+ * MachineModel.setBranchPredictor, every executed JMPZ and computed JUMP
+ * (flags 4 or 6) is predicted before its outcome is recorded, and the
+ * branches and mispredictions are counted for the code index of the
+ * instruction. The predictor only observes the program, it never changes
+ * its results.
+ * <p>
+ * The direction of a JMPZ is predicted by one of the kinds:
+ * STATIC predicts backward branches taken and forward branches not taken,
+ * TWO_BIT keeps a 2-bit saturating counter per code index and GSHARE
+ * indexes the counters with the code index XOR the global history of the
+ * last historyBits outcomes. The target of a computed jump is predicted by
+ * a branch target buffer holding the last target of each code index.
+ * A taken branch is mispredicted if its direction or its target is wrong.
+ * <p>
+ * All the state is in primitive arrays, so a prediction allocates nothing.
+ */
+public class BranchPredictor {
+	public enum Kind {STATIC, TWO_BIT, GSHARE}
+
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+	private Kind kind;
+	private int historyMask;
+	private int history = 0;
+	// 2-bit counters, 0 and 1 predict not taken, 2 and 3 predict taken
+	private byte[] counters;
+	private int counterMask;
+	// the last target of the branch at each code index, -1 if none yet
+	private int[] targets = new int[Memory.CODE_SIZE];
+	private long[] branches = new long[Memory.CODE_SIZE];
+	private long[] mispredicts = new long[Memory.CODE_SIZE];
+
+	public BranchPredictor(Kind kind) {
+		this(kind, 8);
+	}
+
+	/**
+	 * @param kind the kind of direction prediction
+	 * @param historyBits the number of outcomes in the global history of
+	 * GSHARE, 1 to 16
+	 */
+	public BranchPredictor(Kind kind, int historyBits) {
+		if (kind == null)
+			throw new IllegalArgumentException("Coding error: the kind is null");
+		if (historyBits < 1 || historyBits > 16)
+			throw new IllegalArgumentException("The history must have 1 to 16 bits");
+		this.kind = kind;
+		historyMask = (1 << historyBits) - 1;
+		counters = new byte[Math.max(Memory.CODE_SIZE, 1 << historyBits)];
+		counterMask = counters.length - 1;
+		reset();
+	}
+
+	/**
+	 * Forgets the learned state and clears the statistics
+	 */
+	public void reset() {
+		history = 0;
+		Arrays.fill(counters, (byte) 1);
+		Arrays.fill(targets, -1);
+		Arrays.fill(branches, 0);
+		Arrays.fill(mispredicts, 0);
+	}
+
+	/**
+	 * Records the execution of the instruction at pc, which continued at
+	 * next. Instructions that are not JMPZ or computed JUMPs are ignored.
+	 * @param pc the code index of the instruction
+	 * @param b the unsigned opcode byte
+	 * @param arg the argument of the instruction
+	 * @param next the code index of the next instruction
+	 */
+	void record(int pc, int b, int arg, int next) {
+		int op = InstructionSet.HANDLER[b];
+		int mode = InstructionSet.MODE[b];
+		boolean computed = mode >= 2;
+		if (op != JMPZ && !(op == JUMP && computed))
+			return;
+		if (pc < 0 || pc >= Memory.CODE_SIZE)
+			return;
+		boolean taken = next != pc + 1;
+		boolean wrong;
+		if (op == JUMP) {
+			// a JUMP always goes to its target, even when it is pc + 1
+			wrong = targets[pc] != next;
+			targets[pc] = next;
+		} else {
+			int target = computed ? targets[pc] : (mode == 0 ? pc + arg : arg);
+			wrong = predictTaken(pc, target) != taken || (taken && target != next);
+			train(pc, taken);
+			if (taken)
+				targets[pc] = next;
+		}
+		branches[pc]++;
+		if (wrong)
+			mispredicts[pc]++;
+	}
+
+	private boolean predictTaken(int pc, int target) {
+		if (kind == Kind.STATIC)
+			return target != -1 && target <= pc;
+		return counters[index(pc)] >= 2;
+	}
+
+	private void train(int pc, boolean taken) {
+		if (kind == Kind.STATIC)
+			return;
+		int i = index(pc);
+		if (taken && counters[i] < 3)
+			counters[i]++;
+		else if (!taken && counters[i] > 0)
+			counters[i]--;
+		history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+	}
+
+	private int index(int pc) {
+		if (kind == Kind.GSHARE)
+			return (pc ^ history) & counterMask;
+		return pc;
+	}
+
+	public long getBranches() {
+		long retVal = 0;
+		for (long n : branches)
+			retVal += n;
+		return retVal;
+	}
+
+	public long getMispredicts() {
+		long retVal = 0;
+		for (long n : mispredicts)
+			retVal += n;
+		return retVal;
+	}
+
+	public long getBranches(int pc) {
+		return branches[pc];
+	}
+
+	public long getMispredicts(int pc) {
+		return mispredicts[pc];
+	}
+
+	/**
+	 * Lists the totals and the mispredict rate of each branch
+	 * @return one line per item
+	 */
+	public String report() {
+		StringBuilder buff = new StringBuilder();
+		buff.append("\nBranches: " + getBranches() + ", " + getMispredicts()
+				+ " mispredicted (" + kind + ")");
+		for (int pc = 0; pc < branches.length; pc++)
+			if (branches[pc] > 0)
+				buff.append(String.format("\nCode index %d: %d branches, %d mispredicted (%.1f%%)",
+						pc, branches[pc], mispredicts[pc], 100.0*mispredicts[pc]/branches[pc]));
+		return buff.toString();
+	}
+}
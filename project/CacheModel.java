@@ -0,0 +1,221 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * A model of a set-associative, write-back, write-allocate data cache. When
+ * a CacheModel is attached with MachineModel.setCache, every data access of
+ * an executed instruction is looked up in the cache and counted as a hit or
+ * a miss, both for the code index of the instruction and for the range of
+ * REGION_WORDS data words that contains the address. The cache holds no data,
+ * only the tags, so it never changes the results of a program. The ports
+ * above data memory are not cached.
+ * <p>
+ * Sizes are in words and must be powers of two. The cache state and the
+ * statistics live in primitive arrays, so an access allocates nothing.
+ */
+public class CacheModel {
+	public enum Policy {LRU, FIFO, RANDOM}
+
+	public static final int REGION_WORDS = 64;
+	private int lineShift;
+	private int setMask;
+	private int ways;
+	private Policy policy;
+	// tags[set*ways + way] is the line number held in the way, -1 if empty
+	private int[] tags;
+	private boolean[] dirty;
+	// the time of the last use (LRU) or of the fill (FIFO)
+	private long[] stamps;
+	private long clock = 0;
+	private int random = 0x2545F491;
+	private long hits = 0;
+	private long misses = 0;
+	private long writeBacks = 0;
+	private long[] pcHits = new long[Memory.CODE_SIZE];
+	private long[] pcMisses = new long[Memory.CODE_SIZE];
+	private long[] regionHits = new long[Memory.DATA_SIZE/REGION_WORDS];
+	private long[] regionMisses = new long[Memory.DATA_SIZE/REGION_WORDS];
+
+	/**
+	 * @param sizeWords the capacity of the cache in words
+	 * @param associativity the number of ways of each set
+	 * @param lineWords the number of words of a cache line
+	 * @param policy the replacement policy
+	 * @throws IllegalArgumentException if a size is not a power of two or
+	 * the cache cannot hold one line in each way of a set
+	 */
+	public CacheModel(int sizeWords, int associativity, int lineWords, Policy policy) {
+		if (Integer.bitCount(sizeWords) != 1 || Integer.bitCount(associativity) != 1
+				|| Integer.bitCount(lineWords) != 1)
+			throw new IllegalArgumentException("Cache sizes must be powers of two");
+		if (sizeWords < associativity*lineWords)
+			throw new IllegalArgumentException("The cache is smaller than one set");
+		if (policy == null)
+			throw new IllegalArgumentException("Coding error: the policy is null");
+		lineShift = Integer.numberOfTrailingZeros(lineWords);
+		setMask = sizeWords/(associativity*lineWords) - 1;
+		ways = associativity;
+		this.policy = policy;
+		tags = new int[sizeWords/lineWords];
+		dirty = new boolean[tags.length];
+		stamps = new long[tags.length];
+		invalidate();
+	}
+
+	/**
+	 * Empties the cache, keeping the statistics
+	 */
+	public void invalidate() {
+		Arrays.fill(tags, -1);
+		Arrays.fill(dirty, false);
+	}
+
+	/**
+	 * Clears the statistics, keeping the contents of the cache
+	 */
+	public void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		writeBacks = 0;
+		Arrays.fill(pcHits, 0);
+		Arrays.fill(pcMisses, 0);
+		Arrays.fill(regionHits, 0);
+		Arrays.fill(regionMisses, 0);
+	}
+
+	/**
+	 * Records the access to one data word by the instruction at pc
+	 */
+	void access(int pc, int index, boolean write) {
+		if (index < 0 || index >= Memory.DATA_SIZE)
+			return;
+		count(pc, index, lookup(index >>> lineShift, write), 1);
+	}
+
+	/**
+	 * Records the access to count consecutive data words from index from
+	 * by a block instruction at pc. Only the first word of each line can
+	 * miss.
+	 */
+	void accessBlock(int pc, int from, int count, boolean write) {
+		int to = Math.min(from + count, Memory.DATA_SIZE);
+		int i = Math.max(from, 0);
+		while (i < to) {
+			int line = i >>> lineShift;
+			int next = Math.min((line + 1) << lineShift, to);
+			boolean hit = lookup(line, write);
+			count(pc, i, hit, 1);
+			if (next - i > 1)
+				count(pc, i + 1, true, next - i - 1);
+			i = next;
+		}
+	}
+
+	private void count(int pc, int index, boolean hit, int n) {
+		boolean inCode = pc >= 0 && pc < Memory.CODE_SIZE;
+		if (hit) {
+			hits += n;
+			if (inCode)
+				pcHits[pc] += n;
+			regionHits[index/REGION_WORDS] += n;
+		} else {
+			misses += n;
+			if (inCode)
+				pcMisses[pc] += n;
+			regionMisses[index/REGION_WORDS] += n;
+		}
+	}
+
+	/**
+	 * Looks up the line, filling it on a miss, and returns true on a hit
+	 */
+	private boolean lookup(int line, boolean write) {
+		int base = (line & setMask)*ways;
+		clock++;
+		for (int w = base; w < base + ways; w++) {
+			if (tags[w] == line) {
+				if (policy == Policy.LRU)
+					stamps[w] = clock;
+				dirty[w] |= write;
+				return true;
+			}
+		}
+		int victim = victim(base);
+		if (tags[victim] != -1 && dirty[victim])
+			writeBacks++;
+		tags[victim] = line;
+		dirty[victim] = write;
+		stamps[victim] = clock;
+		return false;
+	}
+
+	private int victim(int base) {
+		for (int w = base; w < base + ways; w++)
+			if (tags[w] == -1)
+				return w;
+		if (policy == Policy.RANDOM) {
+			// xorshift, so a run can be repeated
+			random ^= random << 13;
+			random ^= random >>> 17;
+			random ^= random << 5;
+			return base + (random & (ways - 1));
+		}
+		int victim = base;
+		for (int w = base + 1; w < base + ways; w++)
+			if (stamps[w] < stamps[victim])
+				victim = w;
+		return victim;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	public long getHits(int pc) {
+		return pcHits[pc];
+	}
+
+	public long getMisses(int pc) {
+		return pcMisses[pc];
+	}
+
+	/**
+	 * @param region the data words region*REGION_WORDS to
+	 * (region+1)*REGION_WORDS - 1
+	 */
+	public long getRegionHits(int region) {
+		return regionHits[region];
+	}
+
+	public long getRegionMisses(int region) {
+		return regionMisses[region];
+	}
+
+	/**
+	 * Lists the totals and the instructions and data regions that missed
+	 * @return one line per item
+	 */
+	public String report() {
+		StringBuilder buff = new StringBuilder();
+		buff.append("\nCache: " + hits + " hits, " + misses + " misses, "
+				+ writeBacks + " write-backs");
+		for (int pc = 0; pc < pcMisses.length; pc++)
+			if (pcMisses[pc] > 0)
+				buff.append("\nCode index " + pc + ": " + pcHits[pc] + " hits, "
+						+ pcMisses[pc] + " misses");
+		for (int r = 0; r < regionMisses.length; r++)
+			if (regionMisses[r] > 0)
+				buff.append("\nData [" + r*REGION_WORDS + ", " + ((r + 1)*REGION_WORDS - 1)
+						+ "]: " + regionHits[r] + " hits, " + regionMisses[r] + " misses");
+		return buff.toString();
+	}
+}
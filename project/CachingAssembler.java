@@ -0,0 +1,232 @@
+package project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * An Assembler that keeps the results of another one in a directory, so a
+ * source that was already assembled costs a digest and a file copy. The
+ * key of a source is the SHA-256 digest of the configuration of the
+ * assembler, VERSION and the bytes of the source, so assemblers with other
+ * settings do not share keys and a hit is never the result of another
+ * source. A source without
+ * errors is stored as key.pexe; a source with errors as key.err, which
+ * holds the value returned by assemble and the error messages. A result
+ * of -1 (a file that could not be read or written) is not stored.
+ * <p>
+ * The size of the stored files is kept under a bound by removing the
+ * files used least recently: the modification time of a file is set when
+ * it is used. With hard links, a hit links the output to the stored file
+ * instead of copying it, when the file system allows it, so the output
+ * must not be modified in place. Like the assembler it wraps, a
+ * CachingAssembler can be called by several threads.
+ */
+public class CachingAssembler implements Assembler {
+	// change when the encoding of the pexe files or the messages change
+	public static final int VERSION = 1;
+	private final Assembler assembler;
+	private final Path directory;
+	private final long maxBytes;
+	private final boolean hardLinks;
+	private final byte[] configuration;
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param assembler the assembler whose results are kept
+	 * @param directory the directory of the stored files, created if needed
+	 * @param maxBytes the bound on the size of the stored files
+	 * @param hardLinks true to link the outputs to the stored files
+	 * @throws IOException if the directory cannot be created or read
+	 */
+	public CachingAssembler(Assembler assembler, Path directory, long maxBytes, boolean hardLinks)
+			throws IOException {
+		this.assembler = assembler;
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		this.hardLinks = hardLinks;
+		configuration = (assembler.getConfiguration() + " " + VERSION).getBytes(StandardCharsets.UTF_8);
+		try (Stream<Path> files = Files.list(directory)) {
+			size.set(files.mapToLong(CachingAssembler::sizeOf).sum());
+		}
+	}
+
+	@Override
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+		if (error == null)
+			throw new IllegalArgumentException("Coding error: the error buffer is null");
+		String key;
+		try {
+			byte[] source = Files.readAllBytes(Paths.get(inputFileName));
+			key = key(configuration, source);
+		} catch (IOException e) {
+			// the assembler reports the source that cannot be read
+			return assembler.assemble(inputFileName, outputFileName, error);
+		}
+		Path stored = directory.resolve(key + ".pexe");
+		Path storedError = directory.resolve(key + ".err");
+		try {
+			if (Files.exists(storedError)) {
+				String[] result = new String(Files.readAllBytes(storedError), StandardCharsets.UTF_8)
+						.split("\n", 2);
+				// parsed first, so a corrupted file adds nothing to error
+				int retVal = Integer.parseInt(result[0]);
+				touch(storedError);
+				hits.incrementAndGet();
+				error.append(result.length > 1 ? "\n" + result[1] : "");
+				return retVal;
+			}
+			if (Files.exists(stored)) {
+				output(stored, Paths.get(outputFileName));
+				touch(stored);
+				hits.incrementAndGet();
+				return 0;
+			}
+		} catch (IOException | RuntimeException e) {
+			// a file removed by another thread or corrupted is a miss
+		}
+		misses.incrementAndGet();
+		if (hardLinks) {
+			// the output may be a link to a stored file, which must not be overwritten
+			try {
+				Files.deleteIfExists(Paths.get(outputFileName));
+			} catch (IOException e) {
+				// the assembler reports the output that cannot be written
+			}
+		}
+		StringBuilder messages = new StringBuilder();
+		int retVal = assembler.assemble(inputFileName, outputFileName, messages);
+		error.append(messages);
+		try {
+			if (retVal == 0)
+				store(stored, Files.readAllBytes(Paths.get(outputFileName)));
+			else if (retVal > 0)
+				store(storedError, (retVal + messages.toString()).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			// the result is correct even if it cannot be stored
+		}
+		return retVal;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the size in bytes of the stored files
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	private void output(Path stored, Path output) throws IOException {
+		if (hardLinks) {
+			Files.deleteIfExists(output);
+			try {
+				Files.createLink(output, stored);
+				return;
+			} catch (UnsupportedOperationException | IOException e) {
+				// another file system or no links, copy instead
+			}
+		}
+		Files.copy(stored, output, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void touch(Path file) throws IOException {
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Writes a file to a temporary name and renames it, so that other
+	 * threads and processes never read a partial file, then evicts
+	 */
+	private void store(Path file, byte[] content) throws IOException {
+		Path temp = Files.createTempFile(directory, "store", ".tmp");
+		try {
+			Files.write(temp, content);
+			long old = sizeOf(file);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			size.addAndGet(content.length - old);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		if (size.get() > maxBytes)
+			evict();
+	}
+
+	/**
+	 * Removes the files used least recently until the size is under the bound
+	 */
+	private synchronized void evict() throws IOException {
+		if (size.get() <= maxBytes)
+			return;
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(directory)) {
+			list.filter(p -> !p.getFileName().toString().endsWith(".tmp")).forEach(files::add);
+		}
+		// the counted size drifts when threads store the same key, recount it
+		size.set(files.stream().mapToLong(CachingAssembler::sizeOf).sum());
+		files.sort(Comparator.comparing(CachingAssembler::lastModified));
+		for (Path file : files) {
+			if (size.get() <= maxBytes)
+				return;
+			long bytes = sizeOf(file);
+			if (Files.deleteIfExists(file))
+				size.addAndGet(-bytes);
+		}
+	}
+
+	private static long sizeOf(Path file) {
+		try {
+			return Files.exists(file) ? Files.size(file) : 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			// removed by another thread
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 digest in hex of the configuration, preceded by
+	 * its length, and the source
+	 */
+	static String key(byte[] configuration, byte[] source) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform has SHA-256", e);
+		}
+		digest.update(ByteBuffer.allocate(4).putInt(0, configuration.length).array());
+		digest.update(configuration);
+		StringBuilder retVal = new StringBuilder();
+		for (byte b : digest.digest(source))
+			retVal.append(String.format("%02x", b));
+		return retVal.toString();
+	}
+}
@@ -0,0 +1,219 @@
+package project;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes checkpoints of a running machine to an append-only file, so that
+ * a long run can be resumed by another process. A record holds the hash of
+ * the code, the pc, the accumulator, the cycle counter and the data pages
+ * (Memory.PAGE_WORDS words each) written since the previous record, so
+ * the cost of a checkpoint is proportional to the pages dirtied since the
+ * last one. The first record of a file holds all the pages.
+ * <p>
+ * Record format, big-endian: int length of the rest of the record,
+ * long code hash, int pc, int accum, long cycles, int page mask, the
+ * words of each page in the mask, int CRC32 of the bytes after the length.
+ * <p>
+ * open() resumes the machine from the records already in the file (the
+ * same program must be loaded) and appends the next records. A last
+ * record that is truncated or fails its CRC, left by a crash during a
+ * write, is ignored and cut off. As an ExecutionListener the Checkpointer
+ * writes a checkpoint every interval instructions.
+ * <p>
+ * The restored words are written with MachineModel.setData, so they are
+ * reported as changed data like the words written by the program. The
+ * ports are not part of a checkpoint: the words already read from IN_PORT
+ * and written to OUT_PORT cannot be replayed, so a resumed run reads and
+ * writes the streams that are attached to the machine when it resumes.
+ */
+public class Checkpointer implements ExecutionListener, Closeable {
+	private static final int HEADER_BYTES = 8 + 4 + 4 + 8 + 4;
+	private static final int MAX_RECORD = 4 + HEADER_BYTES + 4*Memory.DATA_SIZE + 4;
+	private MachineModel model;
+	private FileChannel channel;
+	private long codeHash;
+	private long interval;
+	private long count = 0;
+	private boolean resumed = false;
+	// false until the file has a record
+	private boolean written = false;
+	private ByteBuffer buff = ByteBuffer.allocateDirect(MAX_RECORD);
+	private CRC32 crc = new CRC32();
+
+	private Checkpointer(MachineModel model, FileChannel channel, long interval) {
+		this.model = model;
+		this.channel = channel;
+		this.interval = interval;
+		codeHash = codeHash(model);
+	}
+
+	/**
+	 * Opens the checkpoint file of a machine. If the file has checkpoints
+	 * the machine is restored to the latest one.
+	 * @param model the machine, with its program loaded
+	 * @param file the checkpoint file, created if needed
+	 * @param interval the number of instructions between two checkpoints
+	 * written as an ExecutionListener, 0 for none
+	 * @return the Checkpointer, which appends to the file
+	 * @throws IOException if the file cannot be read or written or its
+	 * checkpoints are for another program
+	 */
+	public static Checkpointer open(MachineModel model, File file, long interval) throws IOException {
+		if (interval < 0)
+			throw new IllegalArgumentException("The interval cannot be negative");
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		Checkpointer retVal = new Checkpointer(model, channel, interval);
+		try {
+			retVal.replay();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns true if the machine was restored from the file by open()
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Appends a checkpoint of the current state and forces it to disk
+	 * @throws IOException if the file cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		// a new file starts with all the pages
+		int mask = written ? model.getDirtyPages() : (1 << Memory.PAGES) - 1;
+		int[] data = model.getData();
+		buff.clear();
+		buff.position(4); // the length is put last
+		buff.putLong(codeHash);
+		buff.putInt(model.getPC());
+		buff.putInt(model.getAccum());
+		buff.putLong(model.getCycles());
+		buff.putInt(mask);
+		for (int p = 0; p < Memory.PAGES; p++) {
+			if ((mask & (1 << p)) != 0) {
+				buff.asIntBuffer().put(data, p*Memory.PAGE_WORDS, Memory.PAGE_WORDS);
+				buff.position(buff.position() + 4*Memory.PAGE_WORDS);
+			}
+		}
+		buff.putInt(crc(buff, 4, buff.position() - 4));
+		buff.putInt(0, buff.position() - 4);
+		buff.flip();
+		while (buff.hasRemaining())
+			channel.write(buff);
+		channel.force(false);
+		model.clearDirtyPages();
+		written = true;
+	}
+
+	@Override
+	public void executed(int pc, byte opcode, int arg, int nextPC) {
+		if (interval == 0 || ++count < interval)
+			return;
+		count = 0;
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads the records of the file, applies them to the machine and
+	 * positions the channel after the last complete record
+	 */
+	private void replay() throws IOException {
+		long size = channel.size();
+		long pos = 0;
+		ByteBuffer record = ByteBuffer.allocate(MAX_RECORD);
+		while (pos + 4 <= size) {
+			record.clear().limit(4);
+			readFully(record, pos);
+			int length = record.getInt(0);
+			if (length < HEADER_BYTES + 4 || length > MAX_RECORD - 4 || pos + 4 + length > size)
+				break;
+			record.clear().limit(length);
+			readFully(record, pos + 4);
+			if (crc(record, 0, length - 4) != record.getInt(length - 4))
+				break;
+			apply(record);
+			pos += 4 + length;
+		}
+		if (pos < size)
+			channel.truncate(pos);
+		channel.position(pos);
+		if (resumed) {
+			model.clearDirtyPages();
+			written = true;
+		}
+	}
+
+	private void apply(ByteBuffer record) throws IOException {
+		record.flip();
+		if (record.getLong() != codeHash)
+			throw new IOException("The checkpoints are for another program");
+		int pc = record.getInt();
+		int accum = record.getInt();
+		long cycles = record.getLong();
+		int mask = record.getInt();
+		for (int p = 0; p < Memory.PAGES; p++) {
+			if ((mask & (1 << p)) != 0) {
+				for (int i = p*Memory.PAGE_WORDS; i < (p + 1)*Memory.PAGE_WORDS; i++)
+					model.setData(i, record.getInt());
+			}
+		}
+		model.setPC(pc);
+		model.setAccum(accum);
+		model.setCycles(cycles);
+		resumed = true;
+	}
+
+	private void readFully(ByteBuffer record, long pos) throws IOException {
+		while (record.hasRemaining()) {
+			if (channel.read(record, pos + record.position()) < 0)
+				throw new IOException("Unexpected end of the checkpoint file");
+		}
+	}
+
+	private int crc(ByteBuffer b, int from, int length) {
+		crc.reset();
+		ByteBuffer view = b.duplicate();
+		view.limit(from + length).position(from);
+		crc.update(view);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of the opcodes and arguments of the
+	 * program loaded in the machine
+	 */
+	static long codeHash(MachineModel model) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i <= model.getProgramSize(); i++) {
+			Instruction instr = model.getCode(i);
+			int opcode = instr == null ? -1 : instr.opcode & 0xFF;
+			int arg = instr == null ? 0 : instr.arg;
+			hash = (hash ^ opcode)*0x100000001b3L;
+			for (int shift = 24; shift >= 0; shift -= 8)
+				hash = (hash ^ ((arg >>> shift) & 0xFF))*0x100000001b3L;
+		}
+		return hash;
+	}
+}
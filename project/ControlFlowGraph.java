@@ -0,0 +1,416 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * The basic blocks of a loaded program, the edges between them, their
+ * dominators and their loops. A block starts at code index 0, at a target
+ * of a relative or immediate JUMP/JMPZ and after a JUMP, JMPZ or HALT.
+ * The graph is kept in int arrays: the blocks of a program of n
+ * instructions are described by the start index of each block, and the
+ * successors and predecessors of block b are the entries from
+ * start[b] to start[b+1] of a shared edge array (compressed sparse rows).
+ * <p>
+ * A block ending in HALT, in a jump outside the program or at the end of
+ * the program has no successor. The target of a computed jump (flags 4
+ * or 6 of JUMP or JMPZ) is not known, so the graph gives it an edge to
+ * every block; a computed jump into the middle of a block is not
+ * represented. Block 0 is the entry. The dominators are computed by the
+ * iterative algorithm of Cooper, Harvey and Kennedy, and the loops are
+ * the natural loops of the back edges, merged when they share a header.
+ * <p>
+ * MachineModel.getControlFlowGraph() caches the graph of its program
+ * until the code is changed.
+ */
+public class ControlFlowGraph {
+	private static final int HALT = Instruction.opcodes.get("HALT");
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+
+	private int size;
+	private int blockCount;
+	// blockStart[blockCount] == size
+	private int[] blockStart;
+	private int[] blockOf;
+	private int[] succStart;
+	private int[] succ;
+	private int[] predStart;
+	private int[] pred;
+	private boolean computedJumps = false;
+	// -1 for the entry and the unreachable blocks
+	private int[] idom;
+	private int[] rpoNumber;
+	private int[] loopHeader;
+	private int[] loopDepth;
+
+	private ControlFlowGraph(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Builds the graph of the program loaded in a machine
+	 * @param model the machine
+	 * @return the graph
+	 */
+	public static ControlFlowGraph build(MachineModel model) {
+		int size = model.getProgramSize() + 1;
+		byte[] opcodes = new byte[size];
+		int[] args = new int[size];
+		for (int pc = 0; pc < size; pc++) {
+			Instruction instr = model.getCode(pc);
+			// a missing instruction faults like HALT ends the program
+			opcodes[pc] = instr == null ? InstructionSet.encode(HALT, 0) : instr.opcode;
+			args[pc] = instr == null ? 0 : instr.arg;
+		}
+		return build(opcodes, args);
+	}
+
+	/**
+	 * Builds the graph of a program
+	 * @param opcodes the opcodes of the instructions
+	 * @param args the arguments of the instructions
+	 * @return the graph
+	 */
+	public static ControlFlowGraph build(byte[] opcodes, int[] args) {
+		ControlFlowGraph retVal = new ControlFlowGraph(opcodes.length);
+		retVal.findBlocks(opcodes, args);
+		retVal.findEdges(opcodes, args);
+		retVal.findDominators();
+		retVal.findLoops();
+		return retVal;
+	}
+
+	private void findBlocks(byte[] opcodes, int[] args) {
+		boolean[] leader = new boolean[size + 1];
+		leader[0] = true;
+		leader[size] = true;
+		for (int pc = 0; pc < size; pc++) {
+			int op = op(opcodes[pc]);
+			int flags = opcodes[pc] & 6;
+			if (op == HALT)
+				leader[pc + 1] = true;
+			else if (op == JUMP || op == JMPZ) {
+				leader[pc + 1] = true;
+				if (flags >= 4)
+					computedJumps = true;
+				else {
+					int target = flags == 0 ? pc + args[pc] : args[pc];
+					if (target >= 0 && target < size)
+						leader[target] = true;
+				}
+			}
+		}
+		int count = 0;
+		for (int pc = 0; pc < size; pc++)
+			if (leader[pc])
+				count++;
+		blockCount = count;
+		blockStart = new int[count + 1];
+		blockOf = new int[size];
+		int b = -1;
+		for (int pc = 0; pc < size; pc++) {
+			if (leader[pc])
+				blockStart[++b] = pc;
+			blockOf[pc] = b;
+		}
+		blockStart[count] = size;
+	}
+
+	private void findEdges(byte[] opcodes, int[] args) {
+		// first pass counts, second pass fills
+		succStart = new int[blockCount + 1];
+		int[] targets = new int[2];
+		for (int pass = 0; pass < 2; pass++) {
+			int edges = 0;
+			for (int b = 0; b < blockCount; b++) {
+				int last = blockStart[b + 1] - 1;
+				int op = op(opcodes[last]);
+				int flags = opcodes[last] & 6;
+				int n = 0;
+				if ((op == JUMP || op == JMPZ) && flags >= 4) {
+					if (pass == 1)
+						for (int t = 0; t < blockCount; t++)
+							succ[edges + t] = t;
+					edges += blockCount;
+				} else {
+					if (op != HALT && op != JUMP && last + 1 < size)
+						targets[n++] = blockOf[last + 1];
+					if (op == JUMP || op == JMPZ) {
+						int target = flags == 0 ? last + args[last] : args[last];
+						if (target >= 0 && target < size && (n == 0 || blockOf[target] != targets[0]))
+							targets[n++] = blockOf[target];
+					}
+					if (pass == 1)
+						System.arraycopy(targets, 0, succ, edges, n);
+					edges += n;
+				}
+				if (pass == 0)
+					succStart[b + 1] = edges;
+			}
+			if (pass == 0)
+				succ = new int[edges];
+		}
+		predStart = new int[blockCount + 1];
+		for (int e = 0; e < succ.length; e++)
+			predStart[succ[e] + 1]++;
+		for (int b = 0; b < blockCount; b++)
+			predStart[b + 1] += predStart[b];
+		pred = new int[succ.length];
+		int[] fill = Arrays.copyOf(predStart, blockCount);
+		for (int b = 0; b < blockCount; b++)
+			for (int e = succStart[b]; e < succStart[b + 1]; e++)
+				pred[fill[succ[e]]++] = b;
+	}
+
+	private void findDominators() {
+		// reverse postorder by an iterative depth-first search from block 0
+		int[] order = new int[blockCount];
+		rpoNumber = new int[blockCount];
+		Arrays.fill(rpoNumber, -1);
+		idom = new int[blockCount];
+		if (blockCount == 0)
+			return; // a program without code has no entry block
+		int[] stack = new int[blockCount];
+		int[] next = new int[blockCount];
+		boolean[] visited = new boolean[blockCount];
+		int count = 0;
+		int top = 0;
+		stack[0] = 0;
+		next[0] = succStart[0];
+		visited[0] = true;
+		while (top >= 0) {
+			int b = stack[top];
+			if (next[b] < succStart[b + 1]) {
+				int s = succ[next[b]++];
+				if (!visited[s]) {
+					visited[s] = true;
+					stack[++top] = s;
+					next[s] = succStart[s];
+				}
+			} else {
+				order[count++] = b;
+				top--;
+			}
+		}
+		// order holds the postorder, reverse it
+		for (int i = 0; i < count/2; i++) {
+			int t = order[i];
+			order[i] = order[count - 1 - i];
+			order[count - 1 - i] = t;
+		}
+		for (int i = 0; i < count; i++)
+			rpoNumber[order[i]] = i;
+		Arrays.fill(idom, -1);
+		idom[0] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 1; i < count; i++) {
+				int b = order[i];
+				int newIdom = -1;
+				for (int e = predStart[b]; e < predStart[b + 1]; e++) {
+					int p = pred[e];
+					if (idom[p] == -1)
+						continue;
+					newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+				}
+				if (newIdom != idom[b]) {
+					idom[b] = newIdom;
+					changed = true;
+				}
+			}
+		}
+		idom[0] = -1;
+	}
+
+	private int intersect(int a, int b) {
+		while (a != b) {
+			while (rpoNumber[a] > rpoNumber[b])
+				a = idom[a];
+			while (rpoNumber[b] > rpoNumber[a])
+				b = idom[b];
+		}
+		return a;
+	}
+
+	private void findLoops() {
+		loopHeader = new int[blockCount];
+		loopDepth = new int[blockCount];
+		Arrays.fill(loopHeader, -1);
+		int[] bodySize = new int[blockCount];
+		int[] stack = new int[blockCount];
+		boolean[] inBody = new boolean[blockCount];
+		int[] headers = new int[blockCount];
+		int count = 0;
+		for (int h = 0; h < blockCount; h++) {
+			if (rpoNumber[h] < 0)
+				continue;
+			for (int e = predStart[h]; e < predStart[h + 1]; e++) {
+				if (rpoNumber[pred[e]] >= 0 && dominates(h, pred[e])) {
+					headers[count++] = h;
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			int h = headers[i];
+			Arrays.fill(inBody, false);
+			inBody[h] = true;
+			int top = 0;
+			for (int e = predStart[h]; e < predStart[h + 1]; e++) {
+				int p = pred[e];
+				if (rpoNumber[p] >= 0 && dominates(h, p) && !inBody[p]) {
+					inBody[p] = true;
+					stack[top++] = p;
+				}
+			}
+			while (top > 0) {
+				int b = stack[--top];
+				for (int e = predStart[b]; e < predStart[b + 1]; e++) {
+					int p = pred[e];
+					if (rpoNumber[p] >= 0 && !inBody[p]) {
+						inBody[p] = true;
+						stack[top++] = p;
+					}
+				}
+			}
+			int n = 0;
+			for (int b = 0; b < blockCount; b++)
+				if (inBody[b])
+					n++;
+			bodySize[h] = n;
+			for (int b = 0; b < blockCount; b++) {
+				if (!inBody[b])
+					continue;
+				loopDepth[b]++;
+				// the innermost loop is the smallest one
+				if (loopHeader[b] == -1 || bodySize[loopHeader[b]] > n)
+					loopHeader[b] = h;
+			}
+		}
+	}
+
+	private static int op(byte opcode) {
+		return InstructionSet.HANDLER[opcode & 0xFF];
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @param block a block number
+	 * @return the code index of the first instruction of the block
+	 */
+	public int getBlockStart(int block) {
+		return blockStart[block];
+	}
+
+	/**
+	 * @param block a block number
+	 * @return the code index after the last instruction of the block
+	 */
+	public int getBlockEnd(int block) {
+		return blockStart[block + 1];
+	}
+
+	/**
+	 * @param pc a code index of the program
+	 * @return the number of the block that contains it
+	 */
+	public int getBlock(int pc) {
+		return blockOf[pc];
+	}
+
+	public int getSuccessorCount(int block) {
+		return succStart[block + 1] - succStart[block];
+	}
+
+	public int getSuccessor(int block, int i) {
+		return succ[succStart[block] + i];
+	}
+
+	public int getPredecessorCount(int block) {
+		return predStart[block + 1] - predStart[block];
+	}
+
+	public int getPredecessor(int block, int i) {
+		return pred[predStart[block] + i];
+	}
+
+	public boolean hasComputedJumps() {
+		return computedJumps;
+	}
+
+	public boolean isReachable(int block) {
+		return rpoNumber[block] >= 0;
+	}
+
+	/**
+	 * @param block a block number
+	 * @return the immediate dominator of the block, -1 for the entry block
+	 * and for the blocks that cannot be reached
+	 */
+	public int getImmediateDominator(int block) {
+		return idom[block];
+	}
+
+	/**
+	 * Returns true if every path from the entry to block b goes through
+	 * block a. A block dominates itself.
+	 */
+	public boolean dominates(int a, int b) {
+		if (rpoNumber[a] < 0 || rpoNumber[b] < 0)
+			return false;
+		while (b != a) {
+			if (b == 0)
+				return false;
+			b = idom[b];
+		}
+		return true;
+	}
+
+	/**
+	 * @param block a block number
+	 * @return the header of the innermost loop that contains the block,
+	 * -1 if it is not in a loop
+	 */
+	public int getLoopHeader(int block) {
+		return loopHeader[block];
+	}
+
+	/**
+	 * @param block a block number
+	 * @return the number of loops that contain the block
+	 */
+	public int getLoopDepth(int block) {
+		return loopDepth[block];
+	}
+
+	public boolean isLoopHeader(int block) {
+		return loopHeader[block] == block;
+	}
+
+	/**
+	 * Lists the blocks with their code indices, successors, immediate
+	 * dominators and loop depths
+	 * @return one line per block
+	 */
+	public String report() {
+		StringBuilder buff = new StringBuilder();
+		for (int b = 0; b < blockCount; b++) {
+			buff.append("\nBlock " + b + " [" + blockStart[b] + ", " + blockStart[b + 1] + ")");
+			if (!isReachable(b)) {
+				buff.append(" unreachable");
+				continue;
+			}
+			buff.append(" ->");
+			for (int e = succStart[b]; e < succStart[b + 1]; e++)
+				buff.append(" " + succ[e]);
+			buff.append(", idom " + idom[b] + ", loop depth " + loopDepth[b]);
+			if (isLoopHeader(b))
+				buff.append(", loop header");
+		}
+		return buff.toString();
+	}
+}
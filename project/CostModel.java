@@ -0,0 +1,85 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * The number of cycles an instruction costs, for each opcode and flags.
+ * The costs are kept in a table indexed by the unsigned opcode byte, so
+ * the machine adds the cost of an instruction with one lookup per step.
+ * A new CostModel costs 1 cycle for every instruction; standard() gives
+ * costs in which memory operands, multiplication and division are more
+ * expensive.
+ */
+public class CostModel {
+	private int[] costs = new int[256];
+
+	public CostModel() {
+		Arrays.fill(costs, 1);
+	}
+
+	/**
+	 * Returns the cost model with 1 cycle per instruction and 1 more for
+	 * each word of data memory the operand reads: 1 for a direct operand
+	 * and 2 for an indirect one, the pointer then the word. JUMP and JMPZ
+	 * read a word only with flags 4 and 6, where it is the target. MUL
+	 * costs 4 cycles and DIV 12 before those additions.
+	 */
+	public static CostModel standard() {
+		CostModel retVal = new CostModel();
+		for (int op = 0; op < InstructionSet.OPCODE_COUNT; op++) {
+			for (int flags = 0; flags < 8; flags += 2) {
+				byte b = InstructionSet.encode(op, flags);
+				int cost = 1;
+				String name = InstructionSet.mnemonic(op);
+				if (name.equals("MUL"))
+					cost = 4;
+				else if (name.equals("DIV"))
+					cost = 12;
+				retVal.costs[b & 0xFF] = cost + dataReads(op, flags);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the number of words of data memory read to get the operand
+	 * of an opcode with its flags
+	 */
+	private static int dataReads(int op, int flags) {
+		if (!InstructionSet.hasArgument(InstructionSet.encode(op, flags)))
+			return 0;
+		String name = InstructionSet.mnemonic(op);
+		if (name.equals("JUMP") || name.equals("JMPZ"))
+			return flags >= 4 ? 1 : 0;
+		if (flags == 0)
+			return 1;
+		return flags == 4 ? 2 : 0;
+	}
+
+	/**
+	 * Sets the cost of an instruction
+	 * @param mnemonic the mnemonic of the instruction
+	 * @param flags the flags 0, 2, 4 or 6
+	 * @param cycles the cost in cycles
+	 */
+	public void setCost(String mnemonic, int flags, int cycles) {
+		if (!Instruction.opcodes.containsKey(mnemonic))
+			throw new IllegalArgumentException("Unknown mnemonic " + mnemonic);
+		if (flags < 0 || flags > 6 || flags%2 != 0)
+			throw new IllegalArgumentException("Illegal flags " + flags);
+		if (cycles < 0)
+			throw new IllegalArgumentException("A cost cannot be negative");
+		costs[InstructionSet.encode(Instruction.opcodes.get(mnemonic), flags) & 0xFF] = cycles;
+	}
+
+	public int getCost(String mnemonic, int flags) {
+		return costs[InstructionSet.encode(Instruction.opcodes.get(mnemonic), flags) & 0xFF];
+	}
+
+	/**
+	 * Returns a copy of the table indexed by the unsigned opcode byte
+	 */
+	int[] getTable() {
+		return costs.clone();
+	}
+}
@@ -0,0 +1,138 @@
+package project;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A connection to an AssemblerDaemon. It is an Assembler, so the tools
+ * that assemble files can use the daemon instead of a FullAssembler in
+ * their own JVM. The connection has a machine in the daemon, which load()
+ * fills and run() runs. A client is used by a single thread.
+ */
+public class DaemonClient implements Assembler, AutoCloseable {
+	private final SocketChannel channel;
+
+	/**
+	 * @param socket the path of the socket of the daemon
+	 * @throws IOException if the daemon cannot be reached
+	 */
+	public DaemonClient(Path socket) throws IOException {
+		channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.connect(UnixDomainSocketAddress.of(socket));
+	}
+
+	/**
+	 * Assembles the files in the daemon. A connection lost is reported as a
+	 * file that cannot be opened, with the value -1.
+	 * @throws IllegalArgumentException if a file name has more than 0xFFFF
+	 * bytes of UTF-8
+	 */
+	@Override
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+		if (error == null)
+			throw new IllegalArgumentException("Coding error: the error buffer is null");
+		byte[] input = inputFileName.getBytes(StandardCharsets.UTF_8);
+		byte[] output = outputFileName.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer request = ByteBuffer.allocate(5 + input.length + output.length);
+		request.put(AssemblerDaemon.ASSEMBLE);
+		AssemblerDaemon.putString(request, inputFileName);
+		AssemblerDaemon.putString(request, outputFileName);
+		try {
+			ByteBuffer response = call(request);
+			int retVal = response.getInt();
+			error.append(AssemblerDaemon.getRest(response));
+			return retVal;
+		} catch (IOException e) {
+			error.append("\nNo answer from the assembler daemon: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Clears the machine of the connection and loads a pexe file
+	 * @param program the pexe file, as the daemon names it
+	 * @return "success" or a description of the problem, as Loader.load
+	 */
+	public String load(String program) throws IOException {
+		byte[] name = program.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer request = ByteBuffer.allocate(1 + name.length);
+		request.put(AssemblerDaemon.LOAD);
+		request.put(name);
+		ByteBuffer response = call(request);
+		response.getInt();
+		return AssemblerDaemon.getRest(response);
+	}
+
+	/**
+	 * Runs the machine of the connection as MachineModel.run
+	 * @param maxSteps the limit on the number of steps
+	 * @param input the words read from Memory.IN_PORT
+	 * @param output receives the words written to Memory.OUT_PORT, as
+	 * 4-byte big-endian words, or null to discard them
+	 * @return the result of the run
+	 * @throws IllegalStateException with the message of the exception that
+	 * stopped the program
+	 */
+	public RunResult run(long maxSteps, int[] input, WritableByteChannel output) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(9 + 4*input.length);
+		request.put(AssemblerDaemon.RUN);
+		request.putLong(maxSteps);
+		request.asIntBuffer().put(input);
+		request.position(request.limit());
+		ByteBuffer response = call(request);
+		if (response.getInt() != 0)
+			throw new IllegalStateException(AssemblerDaemon.getRest(response));
+		RunResult retVal = new RunResult(response.getLong(), response.getLong(), response.get() == 1,
+				response.getInt(), response.getInt());
+		while (output != null && response.hasRemaining())
+			output.write(response);
+		return retVal;
+	}
+
+	/**
+	 * Asks the daemon to stop accepting connections
+	 */
+	public void shutdown() throws IOException {
+		call(ByteBuffer.allocate(1).put(AssemblerDaemon.SHUTDOWN));
+	}
+
+	private ByteBuffer call(ByteBuffer request) throws IOException {
+		request.flip();
+		AssemblerDaemon.writeFrame(channel, request);
+		ByteBuffer response = AssemblerDaemon.readFrame(channel);
+		if (response == null)
+			throw new IOException("The assembler daemon closed the connection");
+		return response;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Assembles a file in the daemon whose socket is pippin.sock in the
+	 * temporary directory, as AssemblerDaemon.main serves
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: DaemonClient source.pasm program.pexe");
+			return;
+		}
+		Path socket = Paths.get(System.getProperty("java.io.tmpdir"), "pippin.sock");
+		try (DaemonClient client = new DaemonClient(socket)) {
+			StringBuilder error = new StringBuilder();
+			int i = client.assemble(args[0], args[1], error);
+			System.out.println("result = " + i + error);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package project;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Whole-program optimizer that rewrites a pexe file into a smaller one. It
+ * uses the intervals of RangeAnalysis, computed from the state after the
+ * program is loaded into a cleared machine, as constants:
+ * <ul>
+ * <li>an operand whose value is known becomes an immediate operand, and an
+ * instruction that only computes a known accumulator becomes LOD #value</li>
+ * <li>a JMPZ whose accumulator is known to be 0 becomes a JUMP and one
+ * whose accumulator is known not to be 0 is removed</li>
+ * <li>the instructions that cannot be reached are removed</li>
+ * <li>a direct STO to a word that is written again before it is read on
+ * every path is removed</li>
+ * </ul>
+ * The dead stores are found by a liveness analysis of the data words in
+ * which HALT, and every instruction that may fault, makes all the words
+ * live, since the memory is visible when the machine stops. An indirect
+ * or block access is taken to read every word. The jumps are relocated
+ * after the removals. A program with computed jumps is only rewritten in
+ * place, since the targets of its jumps cannot be relocated.
+ * <p>
+ * The analysis assumes a single core: words shared with other cores of a
+ * MultiCoreMachine can change under the program.
+ */
+public class DataflowOptimizer {
+	private static final int WORDS = Memory.DATA_SIZE/64;
+	private static final int NOT = Instruction.opcodes.get("NOT");
+	private static final int HALT = Instruction.opcodes.get("HALT");
+	private static final int LOD = Instruction.opcodes.get("LOD");
+	private static final int STO = Instruction.opcodes.get("STO");
+	private static final int ADD = Instruction.opcodes.get("ADD");
+	private static final int SUB = Instruction.opcodes.get("SUB");
+	private static final int MUL = Instruction.opcodes.get("MUL");
+	private static final int DIV = Instruction.opcodes.get("DIV");
+	private static final int AND = Instruction.opcodes.get("AND");
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+	private static final int CMPL = Instruction.opcodes.get("CMPL");
+	private static final int CMPZ = Instruction.opcodes.get("CMPZ");
+
+	private MachineModel model;
+	private RangeAnalysis analysis;
+	private int size;
+	private Instruction[] code;
+	private boolean[] removed;
+	private boolean computedJumps = false;
+	private int folded = 0;
+	private int decided = 0;
+	private int unreachable = 0;
+	private int deadStores = 0;
+
+	private DataflowOptimizer(MachineModel model) {
+		this.model = model;
+		size = model.getProgramSize() + 1;
+		code = new Instruction[size];
+		removed = new boolean[size];
+		for (int pc = 0; pc < size; pc++) {
+			code[pc] = model.getCode(pc);
+			if (code[pc] == null)
+				continue;
+			int op = op(code[pc]);
+			if ((op == JUMP || op == JMPZ) && (code[pc].opcode & 6) >= 4)
+				computedJumps = true;
+		}
+		analysis = RangeAnalysis.analyze(model);
+	}
+
+	/**
+	 * Optimizes a program.
+	 * @param inputFileName the pexe file of the program
+	 * @param outputFileName the pexe file of the optimized program
+	 * @param report if not null, receives the counts of the changes made
+	 * @return "success" or a description of the problem, as Loader.load
+	 */
+	public static String optimize(String inputFileName, String outputFileName, StringBuilder report) {
+		MachineModel model = new MachineModel(true, () -> {});
+		String result = Loader.load(model, new File(inputFileName));
+		if (!"success".equals(result))
+			return result;
+		for (int pc = 0; pc <= model.getProgramSize(); pc++)
+			if (model.getCode(pc) == null || !InstructionSet.isLegal(model.getCode(pc).opcode))
+				return "Illegal instruction at code index " + pc;
+		DataflowOptimizer optimizer = new DataflowOptimizer(model);
+		optimizer.fold();
+		if (!optimizer.computedJumps && optimizer.jumpsInside()) {
+			optimizer.removeUnreachable();
+			optimizer.removeDeadStores();
+		}
+		try {
+			optimizer.write(outputFileName);
+		} catch (IOException e) {
+			return "Unexpected IO exception in writing " + outputFileName;
+		}
+		if (report != null) {
+			int kept = 0;
+			for (boolean r : optimizer.removed)
+				if (!r)
+					kept++;
+			report.append("\nDataflow optimizer: " + optimizer.size + " instructions, "
+					+ kept + " after optimization");
+			report.append("\nConstants folded: " + optimizer.folded);
+			report.append("\nBranches decided: " + optimizer.decided);
+			report.append("\nUnreachable instructions removed: " + optimizer.unreachable);
+			report.append("\nDead stores removed: " + optimizer.deadStores);
+			if (optimizer.computedJumps)
+				report.append("\nNo instruction removed: the program has computed jumps");
+		}
+		return "success";
+	}
+
+	/**
+	 * Rewrites the instructions whose operand or result is a known
+	 * constant, and the JMPZs whose outcome is known
+	 */
+	private void fold() {
+		for (int pc = 0; pc < size; pc++) {
+			long[] acc = analysis.getAccumRange(pc);
+			if (acc == null)
+				continue;
+			Instruction instr = code[pc];
+			int op = op(instr);
+			int flags = instr.opcode & 6;
+			if (op == JMPZ) {
+				if (acc[0] == 0 && acc[1] == 0) {
+					code[pc] = new Instruction(InstructionSet.encode(JUMP, flags), instr.arg);
+					decided++;
+				} else if ((acc[0] > 0 || acc[1] < 0) && !computedJumps) {
+					removed[pc] = true;
+					decided++;
+				}
+				continue;
+			}
+			Long operand = operand(pc, instr, op, flags);
+			Long result = null;
+			boolean known = acc[0] == acc[1];
+			if (op == LOD)
+				result = operand;
+			else if (op == NOT && known)
+				result = acc[0] == 0 ? 1L : 0L;
+			else if (op == CMPL && operand != null)
+				result = operand < 0 ? 1L : 0L;
+			else if (op == CMPZ && operand != null)
+				result = operand == 0 ? 1L : 0L;
+			else if (known && operand != null) {
+				int a = (int) acc[0];
+				int b = (int) (long) operand;
+				if (op == ADD)
+					result = (long) (a + b);
+				else if (op == SUB)
+					result = (long) (a - b);
+				else if (op == MUL)
+					result = (long) (a*b);
+				else if (op == DIV && b != 0)
+					result = (long) (a/b);
+				else if (op == AND)
+					result = (a != 0 && b != 0) ? 1L : 0L;
+			}
+			if (result != null) {
+				if (op != LOD || flags != 2) {
+					code[pc] = new Instruction(InstructionSet.encode(LOD, 2), (int) (long) result);
+					folded++;
+				}
+			} else if (operand != null && flags != 2
+					&& (op == ADD || op == SUB || op == MUL || op == DIV || op == AND)) {
+				code[pc] = new Instruction(InstructionSet.encode(op, 2), (int) (long) operand);
+				folded++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of the operand of an instruction if it is known
+	 */
+	private Long operand(int pc, Instruction instr, int op, int flags) {
+		if (op != LOD && op != ADD && op != SUB && op != MUL && op != DIV && op != AND
+				&& op != CMPL && op != CMPZ)
+			return null;
+		if (flags == 2)
+			return (long) instr.arg;
+		int index = instr.arg;
+		if (flags == 4) {
+			if (index < 0 || index >= Memory.DATA_SIZE)
+				return null;
+			long[] pointer = analysis.getDataRange(pc, index);
+			if (pointer == null || pointer[0] != pointer[1])
+				return null;
+			index = (int) pointer[0];
+		} else if (flags != 0)
+			return null;
+		if (index < 0 || index >= Memory.DATA_SIZE)
+			return null;
+		long[] value = analysis.getDataRange(pc, index);
+		if (value == null || value[0] != value[1])
+			return null;
+		return value[0];
+	}
+
+	private boolean jumpsInside() {
+		for (int pc = 0; pc < size; pc++) {
+			int[] succ = ProgramVerifier.successors(pc, code[pc]);
+			for (int next : succ)
+				if (next < 0 || next > size)
+					return false;
+		}
+		return true;
+	}
+
+	private void removeUnreachable() {
+		for (int pc = 0; pc < size; pc++) {
+			if (!removed[pc] && analysis.getAccumRange(pc) == null) {
+				removed[pc] = true;
+				unreachable++;
+			}
+		}
+	}
+
+	/**
+	 * Removes the direct stores to data words that are not live after them
+	 */
+	private void removeDeadStores() {
+		long[][] liveIn = new long[size][WORDS];
+		long[] liveOut = new long[WORDS];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int pc = size - 1; pc >= 0; pc--) {
+				if (removed[pc] && analysis.getAccumRange(pc) == null)
+					continue;
+				liveOut(pc, liveIn, liveOut);
+				long[] in = transfer(pc, liveOut);
+				for (int w = 0; w < WORDS; w++) {
+					if ((in[w] | liveIn[pc][w]) != liveIn[pc][w]) {
+						liveIn[pc][w] |= in[w];
+						changed = true;
+					}
+				}
+			}
+		}
+		for (int pc = 0; pc < size; pc++) {
+			Instruction instr = code[pc];
+			if (removed[pc] || !isDirectStore(instr))
+				continue;
+			liveOut(pc, liveIn, liveOut);
+			if ((liveOut[instr.arg/64] & (1L << instr.arg)) == 0) {
+				removed[pc] = true;
+				deadStores++;
+			}
+		}
+	}
+
+	private void liveOut(int pc, long[][] liveIn, long[] liveOut) {
+		Arrays.fill(liveOut, 0);
+		int[] succ = removed[pc] ? new int[] {pc+1} : ProgramVerifier.successors(pc, code[pc]);
+		for (int next : succ) {
+			if (next >= size) {
+				// fetching outside the program faults
+				Arrays.fill(liveOut, -1L);
+				return;
+			}
+			for (int w = 0; w < WORDS; w++)
+				liveOut[w] |= liveIn[next][w];
+		}
+	}
+
+	private long[] transfer(int pc, long[] liveOut) {
+		long[] in = liveOut.clone();
+		if (removed[pc])
+			return in;
+		Instruction instr = code[pc];
+		int op = op(instr);
+		int flags = instr.opcode & 6;
+		if (op == HALT || mayFault(pc, instr, op, flags) || flags == 4
+				|| (op == JUMP && flags == 6) || (op == JMPZ && flags == 6)
+				|| InstructionSet.HANDLER[instr.opcode & 0xFF] > CMPZ) {
+			// everything is visible, or indirect and block accesses may read any word
+			Arrays.fill(in, -1L);
+			return in;
+		}
+		if (isDirectStore(instr))
+			in[instr.arg/64] &= ~(1L << instr.arg);
+		else if (flags == 0 && InstructionSet.HAS_ARG[instr.opcode & 0xFF]
+				&& op != JUMP && op != JMPZ && instr.arg >= 0 && instr.arg < Memory.DATA_SIZE)
+			in[instr.arg/64] |= 1L << instr.arg;
+		return in;
+	}
+
+	private boolean mayFault(int pc, Instruction instr, int op, int flags) {
+		if (!analysis.isAccessSafe(pc))
+			return true;
+		if (op == DIV) {
+			Long divisor = operand(pc, instr, op, flags);
+			return divisor == null || divisor == 0;
+		}
+		return false;
+	}
+
+	private boolean isDirectStore(Instruction instr) {
+		return op(instr) == STO && (instr.opcode & 6) == 0
+				&& instr.arg >= 0 && instr.arg < Memory.DATA_SIZE;
+	}
+
+	/**
+	 * Writes the instructions that are kept, with their jumps relocated,
+	 * and the data memory as it is after the program is loaded
+	 */
+	private void write(String outputFileName) throws IOException {
+		int[] newIndex = new int[size + 1];
+		int kept = 0;
+		for (int pc = 0; pc < size; pc++) {
+			newIndex[pc] = kept;
+			if (!removed[pc])
+				kept++;
+		}
+		newIndex[size] = kept;
+		ByteBuffer buff = ByteBuffer.allocate(5*size + 1 + 8*Memory.DATA_SIZE);
+		for (int pc = 0; pc < size; pc++) {
+			if (removed[pc])
+				continue;
+			Instruction instr = code[pc];
+			int op = op(instr);
+			int flags = instr.opcode & 6;
+			int arg = instr.arg;
+			if ((op == JUMP || op == JMPZ) && flags < 4) {
+				int target = flags == 0 ? pc + arg : arg;
+				// a target outside the program stays outside, where the fetch faults
+				if (target >= 0 && target <= size)
+					target = newIndex[target];
+				arg = flags == 0 ? target - newIndex[pc] : target;
+			}
+			buff.put(instr.opcode);
+			if (InstructionSet.hasArgument(instr.opcode))
+				buff.putInt(arg);
+		}
+		buff.put((byte) -1);
+		for (int i = 0; i < Memory.DATA_SIZE; i++) {
+			if (model.getData(i) != 0) {
+				buff.putInt(i);
+				buff.putInt(model.getData(i));
+			}
+		}
+		buff.flip();
+		try (FileChannel wChannel = new FileOutputStream(new File(outputFileName)).getChannel()) {
+			while (buff.hasRemaining())
+				wChannel.write(buff);
+		}
+	}
+
+	private static int op(Instruction instr) {
+		return InstructionSet.HANDLER[instr.opcode & 0xFF];
+	}
+}
@@ -0,0 +1,17 @@
+package project;
+
+/**
+ * Receives an event for every instruction executed by a MachineModel,
+ * after the instruction has completed. Listeners are attached with
+ * MachineModel.addExecutionListener; without listeners the machine
+ * does not produce events.
+ */
+public interface ExecutionListener {
+	/**
+	 * @param pc the code index of the instruction
+	 * @param opcode the opcode byte of the instruction
+	 * @param arg the argument of the instruction
+	 * @param nextPC the code index of the next instruction
+	 */
+	void executed(int pc, byte opcode, int arg, int nextPC);
+}
@@ -1,122 +1,83 @@
 package project;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Scanner;
 
+/**
+ * Assembler that checks the source and encodes it in a single pass over
+ * its lines, which are split into tokens by a PasmLexer. The instructions
+ * and the data pairs are written to memory buffers as the lines are read,
+ * and the buffers are saved in the output file only if no error was found.
+ * An instance has no fields and can be shared by threads.
+ */
 public class FullAssembler implements Assembler {
-	private boolean readingCode;
 
 	@Override
 	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
-		readingCode = true;
+		boolean readingCode = true;
 		if (error == null)
 			throw new IllegalArgumentException("Coding error: the error buffer is null");
 		int retVal = 0;
+		// the encoded lines, discarded if an error is found
+		ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+		DataOutputStream code = new DataOutputStream(codeBytes);
+		DataOutputStream data = new DataOutputStream(dataBytes);
 
-		File file = new File(inputFileName);
-		try (Scanner scanner = new Scanner(new FileReader(file))){
+		try (FileInputStream in = new FileInputStream(new File(inputFileName))){
+			PasmLexer lexer = new PasmLexer(in.getChannel());
 			boolean blankLineFound = false;
 			boolean blankLineReported = false;
 			int blankLineNum = 0;
 			boolean dataFound = false;
-			int i = 0;
-			while (scanner.hasNext()) {
-				i++;
-				String line = scanner.nextLine();
-				if (line.trim().length() == 0 && !blankLineFound) {
+			while (lexer.nextLine()) {
+				int i = lexer.getLineNumber();
+				int parts = lexer.getTokenCount();
+				if (parts == 0 && !blankLineFound) {
 					blankLineFound = true;
 					blankLineNum = i;
 				}
-				else if (line.trim().length() != 0 && blankLineFound  && !blankLineReported) {
+				else if (parts != 0 && blankLineFound  && !blankLineReported) {
 					error.append("\nIllegal blank line in the source file");
 					retVal = blankLineNum;
 					blankLineReported = true;
 				}
-				else if (line.trim().length() != 0) {
-					if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+				else if (parts != 0) {
+					if (lexer.startsWithWhitespace()) {
 						error.append("\nLine starts with illegal white space");
 						retVal = i;
 					}
-					if (line.trim().toUpperCase().equals("DATA")) {
+					if (parts == 1 && lexer.isData(0)) {
 						if (!readingCode) {
 							error.append("\nFile contains more than one DATA seperator");
 							retVal = i;
 						}
-						if (!line.trim().equals("DATA") && readingCode) {
+						if (!lexer.isUpperCase(0) && readingCode) {
 							error.append("\nLine does not have DATA in upper case");
 							retVal = i;
 						}
 						readingCode = false;
 
 					}
-					String[] parts = line.trim().split("\\s+");
 					if (readingCode) {
-						if (Instruction.opcodes.keySet().contains(parts[0].trim().toUpperCase())) {
-							if (!Instruction.opcodes.keySet().contains(parts[0].trim())) {
-								error.append("\nError on line " + (i) + ": mnemonic must be upper case");
-								retVal = i;
-							}
-							if (noArgument.contains(parts[0]) && parts.length != 1) {
-								error.append("\nError on line " + (i) + ": this mnemonic cannot take arguments");
-								retVal = i;
-							}
-							else if (!noArgument.contains(parts[0]) && parts.length > 2) {
-								error.append("\nError on line " + (i) + ": this mnemonic has too many arguments");
-								retVal = i;
-							}
-							else if (!noArgument.contains(parts[0]) && parts.length < 2) {
-								error.append("\nError on line " + (i) + ": this mnemonic is missing an argument");
-								retVal = i;
-							}
-							else if (!noArgument.contains(parts[0]) && parts.length == 2) {
-								try{
-									if (parts[1].charAt(0) == '#') {
-										parts[1] = parts[1].substring(1);
-									}
-									else if (parts[1].charAt(0) == '@') {
-										parts[1] = parts[1].substring(1);
-									}
-									else if (parts[1].charAt(0) == '&') {
-										parts[1] = parts[1].substring(1);
-									}
-									Integer.parseInt(parts[1],16);
-								} catch(NumberFormatException e) {
-									error.append("\nError on line " + (i) + 
-											": argument is not a hex number");
-									retVal = i;				
-								}
-							}
-						}
-						else {
-							error.append("\nError on line " + (i) + ": illegal mnemonic");
+						if (!codeLine(lexer, i, error, code))
 							retVal = i;
-						}
 					}
 					else if (dataFound) {
-						if (parts.length != 2) {
-							error.append("\nError on line " + (i) +
-									": data must have length 2");
+						if (!dataLine(lexer, i, error, data))
 							retVal = i;
-						}
-						else {
-							try {
-								Integer.parseInt(parts[0],16);
-								Integer.parseInt(parts[1],16);
-							} catch(NumberFormatException e) {
-								error.append("\nError on line " + (i) + 
-										": data has non-numeric memory address");
-								retVal =  i;				
-							}
-						}
 					}
 					if (!readingCode)
 						dataFound = true;
 				}
 			}
-			scanner.close();
 		} catch (FileNotFoundException e) {
 			error.append("\nError: Unable to write the assembled program to the output file");
 			retVal = -1;
@@ -125,10 +86,95 @@ public class FullAssembler implements Assembler {
 			retVal = -1;
 		}
 
-		if (retVal == 0)
-			new SimpleAssembler().assemble(inputFileName, outputFileName, error);
+		if (retVal == 0) {
+			try (FileOutputStream out = new FileOutputStream(new File(outputFileName))) {
+				codeBytes.writeTo(out);
+				out.write(-1);
+				dataBytes.writeTo(out);
+			} catch (IOException e) {
+				error.append("\nError: Unable to write the assembled program to the output file");
+				retVal = -1;
+			}
+		}
 		return retVal;
 	}
+	/**
+	 * Checks a line of the code and encodes it if it has no error
+	 * @param lexer the lexer on the line
+	 * @param i the line number used in the error messages
+	 * @param error receives the error messages
+	 * @param code receives the instruction
+	 * @return false if an error was reported
+	 */
+	static boolean codeLine(PasmLexer lexer, int i, StringBuilder error, DataOutput code) throws IOException {
+		int parts = lexer.getTokenCount();
+		int opcode = lexer.getOpcode(0);
+		if (opcode < 0) {
+			error.append("\nError on line " + (i) + ": illegal mnemonic");
+			return false;
+		}
+		boolean retVal = true;
+		// as in noArgument, a mnemonic in lower case takes an argument
+		boolean upperCase = lexer.isUpperCase(0);
+		boolean noArg = upperCase && !InstructionSet.hasArgument(InstructionSet.encode(opcode, 0));
+		if (!upperCase) {
+			error.append("\nError on line " + (i) + ": mnemonic must be upper case");
+			retVal = false;
+		}
+		if (noArg && parts != 1) {
+			error.append("\nError on line " + (i) + ": this mnemonic cannot take arguments");
+			retVal = false;
+		}
+		else if (!noArg && parts > 2) {
+			error.append("\nError on line " + (i) + ": this mnemonic has too many arguments");
+			retVal = false;
+		}
+		else if (!noArg && parts < 2) {
+			error.append("\nError on line " + (i) + ": this mnemonic is missing an argument");
+			retVal = false;
+		}
+		else if (!noArg && parts == 2) {
+			if (!lexer.parseHex(1, true)) {
+				error.append("\nError on line " + (i) + 
+						": argument is not a hex number");
+				retVal = false;
+			}
+			else if (retVal) {
+				code.writeByte(InstructionSet.encode(opcode, lexer.getFlags(1)));
+				code.writeInt(lexer.getValue());
+			}
+		}
+		else if (retVal)
+			code.writeByte(InstructionSet.encode(opcode, 0));
+		return retVal;
+	}
+
+	/**
+	 * Checks a line of data and encodes its pair if it has no error
+	 * @param lexer the lexer on the line
+	 * @param i the line number used in the error messages
+	 * @param error receives the error messages
+	 * @param data receives the address and the value
+	 * @return false if an error was reported
+	 */
+	static boolean dataLine(PasmLexer lexer, int i, StringBuilder error, DataOutput data) throws IOException {
+		if (lexer.getTokenCount() != 2) {
+			error.append("\nError on line " + (i) +
+					": data must have length 2");
+			return false;
+		}
+		boolean numeric = lexer.parseHex(0, false);
+		int address = lexer.getValue();
+		if (numeric && lexer.parseHex(1, false)) {
+			data.writeInt(address);
+			data.writeInt(lexer.getValue());
+			return true;
+		}
+		error.append("\nError on line " + (i) + 
+				": data has non-numeric memory address");
+		return false;
+	}
+
 	public static void main(String[] args) {
 		StringBuilder error = new StringBuilder();
 		System.out.println("Enter the name of the file without extension: ");
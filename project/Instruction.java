@@ -1,5 +1,6 @@
 package project;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -7,25 +8,18 @@ public class Instruction {
 
 	byte opcode;
 	int arg;
-	public static Map<String, Integer> opcodes = new TreeMap<>();
-	public static Map<Integer, String> mnemonics = new TreeMap<>();
+	// read-only after class initialization, so the assemblers can share them
+	public static final Map<String, Integer> opcodes;
+	public static final Map<Integer, String> mnemonics;
 	static {
-		opcodes.put("NOP", 0);
-		opcodes.put("NOT", 1);
-		opcodes.put("HALT", 2);
-		opcodes.put("LOD", 3);
-		opcodes.put("STO", 4);
-		opcodes.put("ADD", 5);
-		opcodes.put("SUB", 6);
-		opcodes.put("MUL", 7);
-		opcodes.put("DIV", 8);
-		opcodes.put("AND", 9);
-		opcodes.put("JUMP", 10);
-		opcodes.put("JMPZ", 11);
-		opcodes.put("CMPL", 12);
-		opcodes.put("CMPZ", 13);
-		for(String str : opcodes.keySet()) 
-			mnemonics.put(opcodes.get(str), str);
+		Map<String, Integer> names = new TreeMap<>();
+		Map<Integer, String> codes = new TreeMap<>();
+		for (int op = 0; op < InstructionSet.OPCODE_COUNT; op++)
+			names.put(InstructionSet.mnemonic(op), op);
+		for(String str : names.keySet()) 
+			codes.put(names.get(str), str);
+		opcodes = Collections.unmodifiableMap(names);
+		mnemonics = Collections.unmodifiableMap(codes);
 	}
 
 	public Instruction(byte opcode, int arg) {
@@ -34,8 +28,11 @@ public class Instruction {
 		this.arg = arg;
 	}
 
+	// opcodes from 16 on have the sign bit of the byte set, so the opcode
+	// byte is always read as unsigned. The byte -1 (opcode 31 with flags 6)
+	// is reserved to mark the end of the code in a pexe file
 	public static boolean noArgument(Instruction instr) {
-		return (instr.opcode < 24);
+		return !InstructionSet.HAS_ARG[instr.opcode & 0xFF];
 	}
 
 	static int numOnes(int input) {
@@ -48,35 +45,28 @@ public class Instruction {
 	}
 
 	static void checkParity(Instruction instr) {
-		if(numOnes(instr.opcode)%2 == 1)
+		if(!InstructionSet.PARITY_OK[instr.opcode & 0xFF])
 			throw new ParityCheckException("This instruction is corrupted");
 	}
 	
 	public String getText() {
 		StringBuilder buff = new StringBuilder();
-		buff.append(mnemonics.get(opcode/8));
+		buff.append(InstructionSet.MNEMONIC[opcode & 0xFF]);
 		buff.append("  ");
-		int flags = opcode & 6;
-		if (flags == 2)
-			buff.append("#");
-		else if (flags == 4)
-			buff.append("@");
-		else if (flags == 6)
-			buff.append("&");
+		buff.append(InstructionSet.MODE_PREFIX[InstructionSet.MODE[opcode & 0xFF]]);
 		buff.append(Integer.toString(arg,16));
 		return buff.toString().toUpperCase();
 	}
 	
 	public String getBinHex() {
-		String s = "00000000"+Integer.toString(opcode,2);
 		StringBuilder buff = new StringBuilder();
-		buff.append(s.substring(s.length()-8));
+		buff.append(InstructionSet.BINARY[opcode & 0xFF]);
 		buff.append("  ");
 		buff.append(Integer.toHexString(arg));
 		return buff.toString().toUpperCase();
 	}
 	
 	public String toString() {
-		return "Instruction [" + Integer.toString(opcode,2) + ", " + Integer.toString(arg, 16)+"]";
+		return "Instruction [" + Integer.toString(opcode & 0xFF,2) + ", " + Integer.toString(arg, 16)+"]";
 	}
 }
@@ -0,0 +1,130 @@
+package project;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The instruction set of the machine as tables indexed by the unsigned
+ * opcode byte (opcode*8 + flags + parity bit). The tables are computed
+ * once, so the assemblers, the Loader, the machine and the views decode an
+ * opcode byte with array lookups instead of maps and string operations.
+ * <p>
+ * The mode of a byte is flags/2: 0 direct, 1 immediate (#), 2 indirect (@)
+ * and 3 special (&amp;). The handler of a legal byte is its opcode, the key
+ * of the machine's ACTION map, and -1 for the bytes of undefined opcodes.
+ */
+public class InstructionSet {
+	// the mnemonics in opcode order
+	private static final String[] NAMES = {"NOP", "NOT", "HALT", "LOD", "STO",
+			"ADD", "SUB", "MUL", "DIV", "AND", "JUMP", "JMPZ", "CMPL", "CMPZ",
+			"MOVB", "FILL", "SWAP", "FADD", "CAS"};
+	// bit (flags/2) is set when the flags are legal for the opcode
+	private static final int[] LEGAL_MODES = {
+			0b0001, // NOP
+			0b0001, // NOT
+			0b0001, // HALT
+			0b0111, // LOD
+			0b0101, // STO
+			0b0111, // ADD
+			0b0111, // SUB
+			0b0111, // MUL
+			0b0111, // DIV
+			0b0011, // AND
+			0b1111, // JUMP
+			0b1111, // JMPZ
+			0b0001, // CMPL
+			0b0001, // CMPZ
+			0b0100, // MOVB
+			0b0100, // FILL
+			0b0100, // SWAP
+			0b0101, // FADD
+			0b0100  // CAS
+	};
+	public static final int OPCODE_COUNT = NAMES.length;
+	static final String[] MODE_PREFIX = {"", "#", "@", "&"};
+	// the flags as they are shown in IllegalInstructionException
+	private static final String[] MODE_FLAGS = {"(00)", "(01)", "(10)", "(11)"};
+
+	static final boolean[] PARITY_OK = new boolean[256];
+	static final boolean[] LEGAL = new boolean[256];
+	static final boolean[] HAS_ARG = new boolean[256];
+	static final byte[] MODE = new byte[256];
+	static final int[] HANDLER = new int[256];
+	static final String[] MNEMONIC = new String[256];
+	static final String[] BINARY = new String[256];
+	// the opcode byte with its parity bit, indexed by opcode*4 + mode
+	private static final byte[] ENCODE = new byte[4*OPCODE_COUNT];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int op = b/8;
+			int mode = (b & 6)/2;
+			PARITY_OK[b] = Integer.bitCount(b)%2 == 0;
+			// the opcodes below 3 have no argument; the byte -1 that ends
+			// the code of a pexe file is reserved and is never legal
+			HAS_ARG[b] = b >= 24;
+			MODE[b] = (byte) mode;
+			HANDLER[b] = op < OPCODE_COUNT ? op : -1;
+			MNEMONIC[b] = op < OPCODE_COUNT ? NAMES[op] : null;
+			LEGAL[b] = op < OPCODE_COUNT && (LEGAL_MODES[op] & (1 << mode)) != 0;
+			String s = "0000000" + Integer.toString(b, 2);
+			BINARY[b] = s.substring(s.length() - 8);
+		}
+		for (int op = 0; op < OPCODE_COUNT; op++)
+			for (int mode = 0; mode < 4; mode++) {
+				int b = 8*op + 2*mode;
+				ENCODE[4*op + mode] = (byte) (b + Integer.bitCount(b)%2);
+			}
+	}
+
+	private InstructionSet() {}
+
+	/**
+	 * Returns the mnemonic of the opcode
+	 * @param opcode the opcode, 0 to OPCODE_COUNT-1
+	 * @return the mnemonic
+	 */
+	public static String mnemonic(int opcode) {
+		return NAMES[opcode];
+	}
+
+	/**
+	 * Returns the opcode byte, with its parity bit, of an instruction
+	 * @param opcode the opcode, 0 to OPCODE_COUNT-1
+	 * @param flags the flags 0, 2, 4 or 6
+	 * @return the opcode byte
+	 */
+	public static byte encode(int opcode, int flags) {
+		return ENCODE[4*opcode + flags/2];
+	}
+
+	public static boolean isLegal(byte opcode) {
+		return LEGAL[opcode & 0xFF];
+	}
+
+	public static boolean hasArgument(byte opcode) {
+		return HAS_ARG[opcode & 0xFF];
+	}
+
+	/**
+	 * Returns the mnemonics of the instructions without argument
+	 */
+	static Set<String> noArgumentMnemonics() {
+		Set<String> retVal = new TreeSet<>();
+		for (int op = 0; op < OPCODE_COUNT; op++)
+			if (!HAS_ARG[8*op])
+				retVal.add(NAMES[op]);
+		return Collections.unmodifiableSet(retVal);
+	}
+
+	/**
+	 * Returns the message of the IllegalInstructionException for an opcode
+	 * byte that is not legal
+	 */
+	static String illegalMessage(int b) {
+		if (HANDLER[b] < 0)
+			return "Illegal opcode for this instruction: " + BINARY[b];
+		return "Illegal flags for this instruction: " + MODE_FLAGS[MODE[b]];
+	}
+}
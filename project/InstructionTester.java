@@ -2,7 +2,7 @@ package project;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -76,6 +76,21 @@ public class InstructionTester {
 		model.step();
 	}
 
+	@Test (expected=IllegalInstructionException.class)
+	// The ACTION entry of NOP checks the flags when it is called without step()
+	public void testNOPactionImmedIllegal(){
+		model.ACTION.get(Instruction.opcodes.get("NOP")).accept(new Instruction((byte)0b00000011,0));
+	}
+
+	@Test
+	// The ACTION entry of LOD runs a legal instruction like step() does
+	public void testLODactionImmed(){
+		model.setPC(pcInit);
+		model.ACTION.get(Instruction.opcodes.get("LOD")).accept(new Instruction((byte)0b00011011,12));
+		assertEquals(12, model.getAccum());
+		assertEquals(pcInit + 1, model.getPC());
+	}
+
 	@Test (expected=ParityCheckException.class)
 	// Verify parity checking is working
 	public void testNOPindirBadParity(){
@@ -486,6 +501,30 @@ public class InstructionTester {
 				model.getAccum());
 	}
 
+	@Test
+	// Test that STO records the written index and marks only that word dirty
+	public void testSTOmarksChangedData() {
+		Instruction instr = new Instruction((byte)0b00100100,260);
+		model.clearChangedData();
+		long writes = model.getDataWriteCount();
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(567);
+		model.step();
+		//Test the changed index is data[data[260]] = data[40]
+		assertEquals("Changed index recorded", 40,
+				model.getChangedDataIndex());
+		assertEquals("First dirty word", 40,
+				model.nextChangedDataIndex(0));
+		assertEquals("No other dirty word", -1,
+				model.nextChangedDataIndex(41));
+		assertEquals("One write counted", writes + 1,
+				model.getDataWriteCount());
+		model.clearChangedData();
+		assertEquals("Dirty words drained", -1,
+				model.nextChangedDataIndex(0));
+	}
+
 	@Test (expected=ParityCheckException.class)
 	// Verify parity checking is working
 	public void testSTOindirBadParity() {
@@ -1957,5 +1996,224 @@ public class InstructionTester {
 		model.setPC(pcInit);
 		model.step();
 	}
+
+	@Test
+	// Test MOVB copies accum words from data[data[arg]] to data[data[arg+1]]
+	public void testMOVB() {
+		Instruction instr = new Instruction((byte)0b01110100,300);
+		accInit = 5;
+		model.setData(300, 10);
+		model.setData(301, 20);
+		dataCopy[300] = 10;
+		dataCopy[301] = 20;
+		System.arraycopy(dataCopy, 10, dataCopy, 20, 5);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		//Test machine is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator unchanged
+		assertEquals("Accumulator unchanged", accInit,
+				model.getAccum());
+	}
+
+	@Test (expected=IllegalInstructionException.class)
+	// Check MOVB cannot have direct addressing
+	public void testMOVBdirectIllegal() {
+		Instruction instr = new Instruction((byte)0b01110001,300);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.step();
+	}
+
+	@Test (expected=ParityCheckException.class)
+	// Verify parity checking is working
+	public void testMOVBbadParity() {
+		Instruction instr = new Instruction((byte)0b01110101,300);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.step();
+	}
+
+	@Test
+	// Test FILL sets data[data[arg+1]] words from data[data[arg]] to accum
+	public void testFILL() {
+		Instruction instr = new Instruction((byte)0b01111101,300);
+		accInit = 7;
+		model.setData(300, 30);
+		model.setData(301, 4);
+		dataCopy[300] = 30;
+		dataCopy[301] = 4;
+		for (int i = 30; i < 34; i++)
+			dataCopy[i] = 7;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		//Test machine is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator unchanged
+		assertEquals("Accumulator unchanged", accInit,
+				model.getAccum());
+	}
+
+	@Test (expected=IllegalInstructionException.class)
+	// Check FILL cannot have immediate addressing
+	public void testFILLimmedIllegal() {
+		Instruction instr = new Instruction((byte)0b01111011,300);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.step();
+	}
+
+	@Test
+	// Test SWAP exchanges data[data[arg]] and data[data[arg+1]]
+	public void testSWAP() {
+		Instruction instr = new Instruction((byte)0b10000100,300);
+		model.setData(300, 40);
+		model.setData(301, 50);
+		dataCopy[300] = 40;
+		dataCopy[301] = 50;
+		dataCopy[40] = -5*Memory.DATA_SIZE + 500;
+		dataCopy[50] = -5*Memory.DATA_SIZE + 400;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		//Test machine is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator unchanged
+		assertEquals("Accumulator unchanged", accInit,
+				model.getAccum());
+	}
+
+	@Test (expected=ParityCheckException.class)
+	// Verify parity checking is working
+	public void testSWAPbadParity() {
+		Instruction instr = new Instruction((byte)0b10000101,300);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.step();
+	}
+
+	@Test
+	// Check FADD direct (fetch and add to the memory word)
+	public void testFADDdirect() {
+		Instruction instr = new Instruction((byte)0b10001000,50);
+		int arg = 50;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		dataCopy[arg] = -5*Memory.DATA_SIZE + 500 + accInit;
+		//Test memory word is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator holds the old value of the word
+		assertEquals("Accumulator changed", -5*Memory.DATA_SIZE + 500,
+				model.getAccum());
+	}
+
+	@Test
+	// Check FADD indirect
+	public void testFADDindirect() {
+		Instruction instr = new Instruction((byte)0b10001101,300);
+		model.setData(300, 40);
+		dataCopy[300] = 40;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		dataCopy[40] = -5*Memory.DATA_SIZE + 400 + accInit;
+		//Test memory word is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator holds the old value of the word
+		assertEquals("Accumulator changed", -5*Memory.DATA_SIZE + 400,
+				model.getAccum());
+	}
+
+	@Test
+	// Check CAS when the word holds the expected value in the accumulator
+	public void testCASsucceeds() {
+		Instruction instr = new Instruction((byte)0b10010101,300);
+		model.setData(300, 40);
+		model.setData(301, 77);
+		dataCopy[300] = 40;
+		dataCopy[301] = 77;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(-5*Memory.DATA_SIZE + 400);
+		model.step();
+		dataCopy[40] = 77;
+		//Test memory word is changed correctly
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator reports success
+		assertEquals("Accumulator changed", 1, model.getAccum());
+	}
+
+	@Test
+	// Check CAS when the word does not hold the expected value
+	public void testCASfails() {
+		Instruction instr = new Instruction((byte)0b10010101,300);
+		model.setData(300, 40);
+		model.setData(301, 77);
+		dataCopy[300] = 40;
+		dataCopy[301] = 77;
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		//Test memory is unchanged
+		assertArrayEquals(dataCopy, model.getData());
+		//Test program counter incremented
+		assertEquals("Program counter incremented", pcInit+1,
+				model.getPC());
+		//Test accumulator reports failure
+		assertEquals("Accumulator changed", 0, model.getAccum());
+	}
+
+	@Test (expected=IllegalInstructionException.class)
+	// Check that an undefined opcode (19) with good parity is illegal
+	public void testUndefinedOpcode() {
+		Instruction instr = new Instruction((byte)0b10011001,0);
+		model.setCode(pcInit, instr);
+		model.setPC(pcInit);
+		model.step();
+	}
+
+	@Test
+	// Check that run() stops at HALT and counts the cycles of the cost model
+	public void testRunCycles() {
+		model.setCostModel(CostModel.standard());
+		model.setCode(pcInit, new Instruction((byte)0b00011011,5));
+		model.setCode(pcInit+1, new Instruction((byte)0b00111010,3));
+		model.setCode(pcInit+2, new Instruction((byte)0b00010001,0));
+		model.setPC(pcInit);
+		RunResult result = model.run(100);
+		assertTrue("Program halted", result.isHalted());
+		assertEquals("Steps counted", 3, result.getSteps());
+		assertEquals("Cycles counted", 1 + 4 + 1, result.getCycles());
+		assertEquals("Accumulator changed", 15, result.getAccum());
+		assertEquals("Program counter at HALT", pcInit+2, result.getPC());
+	}
+
 }
 
@@ -6,6 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.util.Scanner;
 
 public class Loader {
@@ -30,7 +31,7 @@ public class Loader {
 			int codeIndex = 0;
 			while (buff.hasRemaining()) {
 				byte b = buff.get();
-				if (b < 0)
+				if (b == -1)
 					break;
 				Instruction instr = new Instruction(b,0);
 				if (!Instruction.noArgument(instr))
@@ -44,6 +45,38 @@ public class Loader {
 		}
 		return "success";
 	}
+
+	/**
+	 * Loads a program without copying its code: the pexe file is memory-mapped
+	 * and the machine fetches opcodes and arguments directly from the mapping.
+	 * The data section is still copied into data memory since the program
+	 * writes to it.
+	 * @param model the machine to load into
+	 * @param program the pexe file
+	 * @return "success" or a description of the problem
+	 */
+	public static String loadMapped(MachineModel model, File program) {
+		if (model == null || program == null) {
+			return null;
+		}
+		MappedProgram mapped = null;
+		try {
+			mapped = MappedProgram.map(program);
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			return("File " + program.getName() + " Not Found");
+		} catch (IOException e) {
+			return("Unexpected IO exception in loading " + program.getName());
+		} catch (CodeAccessException e) {
+			return("Cannot load " + program.getName() + ": " + e.getMessage());
+		}
+		
+		ByteBuffer buff = mapped.getBuffer();
+		for (int pos = mapped.getDataOffset(); pos + 8 <= buff.limit(); pos += 8) {
+			model.setData(buff.getInt(pos), buff.getInt(pos + 4));
+		}
+		model.setMappedProgram(mapped);
+		return "success";
+	}
 	
 	public static void main(String[] args) {
 		System.out.println("Enter the name of the file without extension: ");
@@ -3,6 +3,10 @@ package project;
 import static project.Instruction.*;
 
 
+import java.nio.IntBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.function.Consumer;
@@ -15,22 +19,55 @@ public class MachineModel {
 	}
 
 	public final Map<Integer, Consumer<Instruction>> ACTION = new TreeMap<>();
+	// the actions of ACTION indexed by InstructionSet.HANDLER, for dispatch
+	private Consumer<Instruction>[] handlers;
 	private CPU cpu = new CPU();
-	private Memory memory = new Memory();
+	private Memory memory;
 	private boolean withGUI = false;
 	private HaltCallback callBack;
+	// when a program is loaded with Loader.loadMapped the code is fetched from
+	// the mapped file into the single reusable Instruction "fetched"
+	private MappedProgram mappedProgram;
+	private Instruction fetched = new Instruction((byte) 0, 0);
+	// set by ProgramVerifier: element pc is true when the instruction at pc is
+	// a computed jump, so only the fetch after it needs a range check
+	private boolean[] unprovenSuccessor;
+	// set by ProgramVerifier: element pc is true when the instruction at pc
+	// was checked; the other ones are executed with every check
+	private boolean[] proven;
+	private boolean checkNextFetch = true;
+	private CacheModel cache;
+	private BranchPredictor predictor;
+	// built on demand, dropped when the code changes
+	private ControlFlowGraph cfg;
+	// null when there are no listeners, so step() tests a single field
+	private ExecutionListener[] listeners;
+	// the cost of each instruction, indexed by the unsigned opcode byte
+	private int[] costs = new CostModel().getTable();
+	private long cycles = 0;
+	// while run() is executing, HALT only stops the loop of run()
+	private boolean running = false;
+	private boolean halted = false;
 
 	public MachineModel(boolean withGUI, HaltCallback cb) {
+		this(withGUI, cb, new Memory());
+	}
+
+	/**
+	 * Machine that uses the given memory, which lets the cores of a
+	 * MultiCoreMachine share data memory
+	 */
+	MachineModel(boolean withGUI, HaltCallback cb, Memory memory) {
 		this.withGUI = withGUI;
 		callBack = cb;
+		this.memory = memory;
+
+		// step() checks the opcode byte against InstructionSet before it calls
+		// a handler, so the handlers only see legal flags. The ACTION entries
+		// wrap them with the same flags check for the callers outside step().
 
 		// ACTION entry for "NOP" (0)
 		ACTION.put(opcodes.get("NOP"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if (flags != 0) {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
 			cpu.pc++;
 		});
 
@@ -40,16 +77,10 @@ public class MachineModel {
 		// if the accumulator is 0, set it to 1, otherwise set it to 0. Increment the
 		// program counter.
 		ACTION.put(opcodes.get("NOT"), instr -> {
-			int flags = instr.opcode & 6; // removes parity
-			if (flags == 0) {
-				if (cpu.accum == 0)
-					cpu.accum = 1;
-				else
-					cpu.accum = 0;
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
+			if (cpu.accum == 0)
+				cpu.accum = 1;
+			else
+				cpu.accum = 0;
 			cpu.pc++;
 		});
 
@@ -58,13 +89,7 @@ public class MachineModel {
 		// method halt().
 		// Do not increment the program counter.
 		ACTION.put(opcodes.get("HALT"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0)
-				halt();
-			else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
+			halt();
 
 		});
 
@@ -77,14 +102,11 @@ public class MachineModel {
 		ACTION.put(opcodes.get("LOD"), instr -> {
 			int flags = instr.opcode & 6;
 			if (flags == 0) { // direct accessing
-				cpu.accum = memory.getData(instr.arg);
+				cpu.accum = load(instr.arg);
 			} else if (flags == 2) { // immediate addressing
 				cpu.accum = instr.arg;
 			} else if (flags == 4) { // Indirect addressing
-				cpu.accum = memory.getData(memory.getData(instr.arg));
-			} else { // illegal case: "01", "11"
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				cpu.accum = load(load(instr.arg));
 			}
 			cpu.pc++;
 		});
@@ -99,12 +121,9 @@ public class MachineModel {
 		ACTION.put(opcodes.get("STO"), instr -> {
 			int flags = instr.opcode & 6;
 			if (flags == 0) {
-				memory.setData(instr.arg, cpu.accum);
+				store(instr.arg, cpu.accum);
 			} else if (flags == 4) {
-				memory.setData(memory.getData(instr.arg), cpu.accum);
-			} else { // cant have "10" (2)
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				store(load(instr.arg), cpu.accum);
 			}
 			cpu.pc++;
 		});
@@ -113,14 +132,11 @@ public class MachineModel {
 		ACTION.put(opcodes.get("ADD"), instr -> {
 			int flags = instr.opcode & 6; // remove parity bit that will have been verified
 			if (flags == 0) { // direct addressing
-				cpu.accum += memory.getData(instr.arg);
+				cpu.accum += load(instr.arg);
 			} else if (flags == 2) { // immediate addressing
 				cpu.accum += instr.arg;
 			} else if (flags == 4) { // indirect addressing
-				cpu.accum += memory.getData(memory.getData(instr.arg));
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				cpu.accum += load(load(instr.arg));
 			}
 			cpu.pc++;
 		});
@@ -130,14 +146,11 @@ public class MachineModel {
 		ACTION.put(opcodes.get("SUB"), instr -> {
 			int flags = instr.opcode & 6; // remove parity bit that will have been verified
 			if (flags == 0) { // direct addressing
-				cpu.accum -= memory.getData(instr.arg);
+				cpu.accum -= load(instr.arg);
 			} else if (flags == 2) { // immediate addressing
 				cpu.accum -= instr.arg;
 			} else if (flags == 4) { // indirect addressing
-				cpu.accum -= memory.getData(memory.getData(instr.arg));
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				cpu.accum -= load(load(instr.arg));
 			}
 			cpu.pc++;
 		});
@@ -146,14 +159,11 @@ public class MachineModel {
 		ACTION.put(opcodes.get("MUL"), instr -> {
 			int flags = instr.opcode & 6; // remove parity bit that will have been verified
 			if (flags == 0) { // direct addressing
-				cpu.accum *= memory.getData(instr.arg);
+				cpu.accum *= load(instr.arg);
 			} else if (flags == 2) { // immediate addressing
 				cpu.accum *= instr.arg;
 			} else if (flags == 4) { // indirect addressing
-				cpu.accum *= memory.getData(memory.getData(instr.arg));
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				cpu.accum *= load(load(instr.arg));
 			}
 			cpu.pc++;
 		});
@@ -165,23 +175,22 @@ public class MachineModel {
 		ACTION.put(opcodes.get("DIV"), instr -> {
 			int flags = instr.opcode & 6; // remove parity bit that will have been verified
 			if (flags == 0) { // direct addressing
-				if (memory.getData(instr.arg) == 0)
+				int divisor = load(instr.arg);
+				if (divisor == 0)
 					throw new DivideByZeroException("Cant divide by zero");
 				else
-					cpu.accum /= memory.getData(instr.arg);
+					cpu.accum /= divisor;
 			} else if (flags == 2) { // immediate addressing
 				if (instr.arg == 0)
 					throw new DivideByZeroException("Cant divide by zero");
 				else
 					cpu.accum /= instr.arg;
 			} else if (flags == 4) { // indirect addressing
-				if (memory.getData(memory.getData(instr.arg)) == 0)
+				int divisor = load(load(instr.arg));
+				if (divisor == 0)
 					throw new DivideByZeroException("Cant divide by zero");
 				else
-					cpu.accum /= memory.getData(memory.getData(instr.arg));
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+					cpu.accum /= divisor;
 			}
 			cpu.pc++;
 		});
@@ -198,7 +207,7 @@ public class MachineModel {
 		ACTION.put(opcodes.get("AND"), instr -> {
 			int flags = instr.opcode & 6;
 			if (flags == 0) { // direct addressing
-				if (cpu.accum != 0 && memory.getData(instr.arg) != 0)
+				if (cpu.accum != 0 && load(instr.arg) != 0)
 					cpu.accum = 1;
 				else
 					cpu.accum = 0;
@@ -207,9 +216,6 @@ public class MachineModel {
 					cpu.accum = 1;
 				else
 					cpu.accum = 0;
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
 			}
 			cpu.pc++;
 		});
@@ -229,9 +235,9 @@ public class MachineModel {
 			} else if (flags == 2) { // immediate addressing
 				cpu.pc = instr.arg;
 			} else if (flags == 4) { // indrect addressing
-				cpu.pc += memory.getData(instr.arg);
+				cpu.pc += load(instr.arg);
 			} else {
-				cpu.pc = memory.getData(instr.arg);
+				cpu.pc = load(instr.arg);
 			}
 		});
 
@@ -247,9 +253,9 @@ public class MachineModel {
 				} else if (flags == 2) { // immediate addressing
 					cpu.pc = instr.arg;
 				} else if (flags == 4) { // indrect addressing
-					cpu.pc += memory.getData(instr.arg);
+					cpu.pc += load(instr.arg);
 				} else {
-					cpu.pc = memory.getData(instr.arg);
+					cpu.pc = load(instr.arg);
 				}
 			} else
 				cpu.pc++;
@@ -260,16 +266,10 @@ public class MachineModel {
 		// if memory.getData(arg) is less than 0, set it the accumulator to 1, otherwise
 		// set it to 0. Increment the program counter.
 		ACTION.put(opcodes.get("CMPL"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0) {
-				if (memory.getData(instr.arg) < 0)
-					cpu.accum = 1;
-				else
-					cpu.accum = 0;
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
+			if (load(instr.arg) < 0)
+				cpu.accum = 1;
+			else
+				cpu.accum = 0;
 			cpu.pc++;
 		});
 
@@ -278,20 +278,150 @@ public class MachineModel {
 		// if memory.getData(arg) is 0, set it the accumulator to 1, otherwise set it to
 		// 0. Increment the program counter.
 		ACTION.put(opcodes.get("CMPZ"), instr -> {
+			if (load(instr.arg) == 0)
+				cpu.accum = 1;
+			else
+				cpu.accum = 0;
+			cpu.pc++;
+
+		});
+
+		// MOVB (block copy), key for ACTION is 0xE (opcodes.get("MOVB").
+		// Only indirect addressing is legal: memory.getData(arg) is the source 
+		// index, memory.getData(arg+1) the destination index and cpu.accum is 
+		// the number of words copied with System.arraycopy, so the blocks may 
+		// overlap. Increment the program counter.
+		ACTION.put(opcodes.get("MOVB"), instr -> {
+			copyData(load(instr.arg), 
+					load(instr.arg + 1), cpu.accum);
+			cpu.pc++;
+		});
+
+		// FILL (block fill), key for ACTION is 0xF (opcodes.get("FILL").
+		// Only indirect addressing is legal: memory.getData(arg+1) words starting 
+		// at index memory.getData(arg) are set to cpu.accum with Arrays.fill.
+		// Increment the program counter.
+		ACTION.put(opcodes.get("FILL"), instr -> {
+			fillData(load(instr.arg), 
+					load(instr.arg + 1), cpu.accum);
+			cpu.pc++;
+		});
+
+		// SWAP (exchange two words), key for ACTION is 0x10 (opcodes.get("SWAP").
+		// Only indirect addressing is legal: the words at index memory.getData(arg) 
+		// and at index memory.getData(arg+1) are exchanged. The accumulator is 
+		// not used. Increment the program counter.
+		ACTION.put(opcodes.get("SWAP"), instr -> {
+			swapData(load(instr.arg), load(instr.arg + 1));
+			cpu.pc++;
+		});
+
+		// FADD (atomic fetch and add), key for ACTION is 0x11 (opcodes.get("FADD").
+		// For direct addressing atomically adds cpu.accum to the word at index arg,
+		// for indirect addressing to the word at index memory.getData(arg). 
+		// In both cases cpu.accum is set to the value the word had before.
+		// The other values of flags cause IllegalInstructionException.
+		// Increment the program counter.
+		ACTION.put(opcodes.get("FADD"), instr -> {
 			int flags = instr.opcode & 6;
-			if (flags == 0) {
-				if (memory.getData(instr.arg) == 0)
-					cpu.accum = 1;
-				else
-					cpu.accum = 0;
-			} else {
-				String fString = "(" + (flags % 8 > 3 ? "1" : "0") + (flags % 4 > 1 ? "1" : "0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			if (flags == 0) { // direct addressing
+				cpu.accum = fetchAndAddData(instr.arg, cpu.accum);
+			} else if (flags == 4) { // indirect addressing
+				cpu.accum = fetchAndAddData(load(instr.arg), cpu.accum);
 			}
 			cpu.pc++;
+		});
 
+		// CAS (atomic compare and swap), key for ACTION is 0x12 (opcodes.get("CAS").
+		// Only indirect addressing is legal: if the word at index memory.getData(arg)
+		// is equal to cpu.accum it is atomically set to memory.getData(arg+1) and 
+		// cpu.accum is set to 1, otherwise the word is unchanged and cpu.accum is 
+		// set to 0. Increment the program counter.
+		ACTION.put(opcodes.get("CAS"), instr -> {
+			if (compareAndSetData(load(instr.arg), cpu.accum, 
+					load(instr.arg + 1)))
+				cpu.accum = 1;
+			else
+				cpu.accum = 0;
+			cpu.pc++;
 		});
 
+		handlers = newHandlers(ACTION);
+		for (int op = 0; op < handlers.length; op++)
+			ACTION.put(op, checkFlags(op, handlers[op]));
+	}
+
+	private static Consumer<Instruction>[] newHandlers(Map<Integer, Consumer<Instruction>> actions) {
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		Consumer<Instruction>[] retVal = new Consumer[InstructionSet.OPCODE_COUNT];
+		for (int op = 0; op < retVal.length; op++)
+			retVal[op] = actions.get(op);
+		return retVal;
+	}
+
+	/**
+	 * Returns the action that throws IllegalInstructionException when the
+	 * flags of its instruction are not legal for the opcode, then calls handler
+	 */
+	private static Consumer<Instruction> checkFlags(int opcode, Consumer<Instruction> handler) {
+		return instr -> {
+			int b = 8*opcode + (instr.opcode & 6);
+			if (!InstructionSet.LEGAL[b])
+				throw new IllegalInstructionException(InstructionSet.illegalMessage(b));
+			handler.accept(instr);
+		};
+	}
+
+	// The data accesses of the actions go through these methods, which
+	// record them in the cache model if one is attached
+
+	private int load(int index) {
+		int retVal = memory.getData(index);
+		if (cache != null)
+			cache.access(cpu.pc, index, false);
+		return retVal;
+	}
+
+	private void store(int index, int value) {
+		memory.setData(index, value);
+		if (cache != null)
+			cache.access(cpu.pc, index, true);
+	}
+
+	private void copyData(int from, int to, int count) {
+		memory.copyData(from, to, count);
+		if (cache != null) {
+			cache.accessBlock(cpu.pc, from, count, false);
+			cache.accessBlock(cpu.pc, to, count, true);
+		}
+	}
+
+	private void fillData(int from, int count, int value) {
+		memory.fillData(from, count, value);
+		if (cache != null)
+			cache.accessBlock(cpu.pc, from, count, true);
+	}
+
+	private void swapData(int i, int j) {
+		memory.swapData(i, j);
+		if (cache != null) {
+			cache.access(cpu.pc, i, true);
+			cache.access(cpu.pc, j, true);
+		}
+	}
+
+	private int fetchAndAddData(int index, int delta) {
+		int retVal = memory.fetchAndAddData(index, delta);
+		if (cache != null)
+			cache.access(cpu.pc, index, true);
+		return retVal;
+	}
+
+	private boolean compareAndSetData(int index, int expect, int update) {
+		boolean retVal = memory.compareAndSetData(index, expect, update);
+		if (cache != null)
+			cache.access(cpu.pc, index, retVal);
+		return retVal;
 	}
 
 	// 2nd contructor
@@ -302,6 +432,11 @@ public class MachineModel {
 	// -----------------------------------------methods---------
 	
 	public void halt() {
+		memory.getPorts().flush();
+		if (running) {
+			halted = true;
+			return;
+		}
 		if(!withGUI) System.exit(0);
 		callBack.halt();
 	}
@@ -322,22 +457,168 @@ public class MachineModel {
 		return memory.getData(min, max);
 	}
 
+	/**
+	 * Attaches the words of the buffer as the input read from Memory.IN_PORT
+	 * @param words the input words
+	 */
+	public void attachInput(IntBuffer words) {
+		memory.getPorts().attachInput(words);
+	}
+
+	/**
+	 * Attaches a channel of 4-byte big-endian words as the input read from
+	 * Memory.IN_PORT
+	 * @param channel the input channel
+	 */
+	public void attachInput(ReadableByteChannel channel) {
+		memory.getPorts().attachInput(channel);
+	}
+
+	/**
+	 * Attaches the channel that receives the words written to Memory.OUT_PORT
+	 * as 4-byte big-endian words. The output is buffered, it is flushed when
+	 * the machine halts or when flushOutput is called.
+	 * @param channel the output channel
+	 */
+	public void attachOutput(WritableByteChannel channel) {
+		memory.getPorts().attachOutput(channel);
+	}
+
+	public void flushOutput() {
+		memory.getPorts().flush();
+	}
+
 	public Instruction getCode(int index) {
+		if (mappedProgram != null)
+			return new Instruction(mappedProgram.getOpcode(index), mappedProgram.getArg(index));
 		return memory.getCode(index);
 	}
 
 	public void setCode(int i, Instruction j) {
+		if (mappedProgram != null) {
+			// the mapping is read-only, so copy the program into code memory first
+			MappedProgram mapped = mappedProgram;
+			mappedProgram = null;
+			for (int k = 0; k < mapped.getCodeSize(); k++)
+				memory.setCode(k, new Instruction(mapped.getOpcode(k), mapped.getArg(k)));
+		}
 		memory.setCode(i, j);
+		unprovenSuccessor = null;
+		cfg = null;
 	}
 
 	public Instruction[] getCode() {
+		if (mappedProgram != null)
+			return getCode(0, Memory.CODE_SIZE);
 		return memory.getCode();
 	}
 
 	public Instruction[] getCode(int min, int max) {
+		if (mappedProgram != null) {
+			Instruction[] retVal = new Instruction[max - min];
+			for (int k = Math.max(min, 0); k < Math.min(max, mappedProgram.getCodeSize()); k++)
+				retVal[k - min] = getCode(k);
+			return retVal;
+		}
 		return memory.getCode(min, max);
 	}
 
+	void setMappedProgram(MappedProgram mapped) {
+		memory.clearCode();
+		unprovenSuccessor = null;
+		cfg = null;
+		mappedProgram = mapped;
+		memory.setProgramSize(Math.max(0, mapped.getCodeSize() - 1));
+	}
+
+	void setVerified(boolean[] computedJump, boolean[] checked) {
+		unprovenSuccessor = computedJump;
+		proven = checked;
+		checkNextFetch = true;
+	}
+
+	public boolean isVerified() {
+		return unprovenSuccessor != null;
+	}
+
+	/**
+	 * Attaches a cache model that records the data accesses of the
+	 * instructions executed from now on
+	 * @param cache the cache model, null to detach it
+	 */
+	public void setCache(CacheModel cache) {
+		this.cache = cache;
+	}
+
+	public CacheModel getCache() {
+		return cache;
+	}
+
+	/**
+	 * Attaches a branch predictor that records the branches executed
+	 * from now on
+	 * @param predictor the branch predictor, null to detach it
+	 */
+	public void setBranchPredictor(BranchPredictor predictor) {
+		this.predictor = predictor;
+	}
+
+	public BranchPredictor getBranchPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * Returns the control-flow graph of the loaded program, which is built
+	 * on the first call after the code is changed
+	 */
+	public ControlFlowGraph getControlFlowGraph() {
+		if (cfg == null)
+			cfg = ControlFlowGraph.build(this);
+		return cfg;
+	}
+
+	/**
+	 * Sets the costs added to the cycle counter by the instructions
+	 * executed from now on
+	 * @param costModel the costs, null for 1 cycle per instruction
+	 */
+	public void setCostModel(CostModel costModel) {
+		costs = (costModel == null ? new CostModel() : costModel).getTable();
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public void setCycles(long cycles) {
+		this.cycles = cycles;
+	}
+
+	public void addExecutionListener(ExecutionListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("Coding error: the listener is null");
+		if (listeners == null)
+			listeners = new ExecutionListener[] {listener};
+		else {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+		}
+	}
+
+	public void removeExecutionListener(ExecutionListener listener) {
+		if (listeners == null)
+			return;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				ExecutionListener[] retVal = new ExecutionListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, retVal, 0, i);
+				System.arraycopy(listeners, i + 1, retVal, i, retVal.length - i);
+				listeners = retVal.length == 0 ? null : retVal;
+				return;
+			}
+		}
+	}
+
 	public int getProgramSize() {
 		return memory.getProgramSize();
 	}
@@ -356,28 +637,110 @@ public class MachineModel {
 	
 	public void setPC(int pc) {
 		cpu.pc = pc;
+		checkNextFetch = true;
 	}
 
 	public int getChangedDataIndex() {
 		return memory.getChangedDataIndex();
 	}
+
+	public int nextChangedDataIndex(int from) {
+		return memory.nextDirtyData(from);
+	}
+
+	public void clearChangedData() {
+		memory.clearDirtyData();
+	}
+
+	public long getDataWriteCount() {
+		return memory.getDataWriteCount();
+	}
+
+	int getDirtyPages() {
+		return memory.getDirtyPages();
+	}
+
+	void clearDirtyPages() {
+		memory.clearDirtyPages();
+	}
 	
 	public void setProgramSize(int i) {
 		memory.setProgramSize(i);
+		unprovenSuccessor = null;
+		cfg = null;
 	}
 	
 	public void clear() {
+		mappedProgram = null;
+		unprovenSuccessor = null;
+		cfg = null;
 		memory.clearCode();
 		memory.clearData();
 		cpu.accum = 0;
 		cpu.pc = 0;
+		cycles = 0;
 	}
 	
+	/**
+	 * Executes instructions until the program halts or maxSteps steps have
+	 * been executed. A HALT ends the run instead of calling the halt
+	 * callback or exiting. An exception thrown by an instruction ends the
+	 * run and is rethrown.
+	 * @param maxSteps the limit on the number of steps
+	 * @return the steps and cycles of the run and the state at its end
+	 */
+	public RunResult run(long maxSteps) {
+		long steps = 0;
+		long startCycles = cycles;
+		running = true;
+		halted = false;
+		try {
+			while (!halted && steps < maxSteps) {
+				step();
+				steps++;
+			}
+		} finally {
+			running = false;
+		}
+		return new RunResult(steps, cycles - startCycles, halted, cpu.pc, cpu.accum);
+	}
+
 	public void step() {
 		try {
-			Instruction instr = memory.getCode(cpu.pc);
-			Instruction.checkParity(instr);
-			ACTION.get(instr.opcode/8).accept(instr);	
+			int pc = cpu.pc;
+			Instruction instr;
+			boolean checked = unprovenSuccessor == null;
+			if (mappedProgram != null) {
+				fetched.opcode = mappedProgram.getOpcode(pc);
+				fetched.arg = mappedProgram.getArg(pc);
+				instr = fetched;
+			} else if (!checked && (!checkNextFetch || (pc >= 0 && pc < proven.length && proven[pc]))) {
+				// verified program: only a computed jump or setPC can leave the
+				// instructions that were checked
+				instr = memory.getCode()[pc];
+			} else {
+				checked = true;
+				instr = memory.getCode(pc);
+				if (instr == null)
+					throw new CodeAccessException("Illegal access to code");
+			}
+			int b = instr.opcode & 0xFF;
+			if (checked) {
+				if (!InstructionSet.PARITY_OK[b])
+					throw new ParityCheckException("This instruction is corrupted");
+				if (!InstructionSet.LEGAL[b])
+					throw new IllegalInstructionException(InstructionSet.illegalMessage(b));
+				handlers[InstructionSet.HANDLER[b]].accept(instr);
+			} else {
+				handlers[InstructionSet.HANDLER[b]].accept(instr);
+				checkNextFetch = unprovenSuccessor[pc];
+			}
+			if (predictor != null)
+				predictor.record(pc, b, instr.arg, cpu.pc);
+			cycles += costs[b];
+			if (listeners != null)
+				for (ExecutionListener listener : listeners)
+					listener.executed(pc, instr.opcode, instr.arg, cpu.pc);
 		}catch(Exception e){
 			halt();
 			throw e;
@@ -0,0 +1,504 @@
+package project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the parts of the machine around the instructions: the ports,
+ * the loaders, the cores and the models of the hardware
+ */
+public class MachineTester {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+	MachineModel model = new MachineModel(true, () -> {});
+
+	@Test
+	// IN_PORT reads the input words, then 0 at the end of the input
+	public void testINPORTread() {
+		PortIO ports = new PortIO();
+		ports.attachInput(IntBuffer.wrap(new int[] {5, -6}));
+		assertEquals(5, ports.read(Memory.IN_PORT));
+		assertEquals(-6, ports.read(Memory.IN_PORT));
+		assertEquals("End of input", 0, ports.read(Memory.IN_PORT));
+	}
+
+	@Test
+	// IN_PORT reads 4-byte big-endian words from a channel
+	public void testINPORTreadChannel() {
+		PortIO ports = new PortIO();
+		ports.attachInput(Channels.newChannel(new ByteArrayInputStream(new byte[] {0, 0, 1, 2, -1, -1, -1, -1})));
+		assertEquals(0x102, ports.read(Memory.IN_PORT));
+		assertEquals(-1, ports.read(Memory.IN_PORT));
+		assertEquals("End of input", 0, ports.read(Memory.IN_PORT));
+	}
+
+	@Test
+	// STATUS_PORT is 1 while there is input and does not consume it
+	public void testSTATUSPORTread() {
+		PortIO ports = new PortIO();
+		assertEquals("Nothing attached", 0, ports.read(Memory.STATUS_PORT));
+		ports.attachInput(IntBuffer.wrap(new int[] {9}));
+		assertEquals(1, ports.read(Memory.STATUS_PORT));
+		assertEquals(1, ports.read(Memory.STATUS_PORT));
+		assertEquals(9, ports.read(Memory.IN_PORT));
+		assertEquals(0, ports.read(Memory.STATUS_PORT));
+	}
+
+	@Test
+	// OUT_PORT writes 4-byte big-endian words when the output is flushed
+	public void testOUTPORTwrite() {
+		PortIO ports = new PortIO();
+		ports.write(Memory.OUT_PORT, 1); // nothing attached, discarded
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ports.attachOutput(Channels.newChannel(bytes));
+		ports.write(Memory.OUT_PORT, 0x10203);
+		ports.write(Memory.OUT_PORT, -2);
+		assertEquals("Buffered", 0, bytes.size());
+		ports.flush();
+		assertArrayEquals(new byte[] {0, 1, 2, 3, -1, -1, -1, -2}, bytes.toByteArray());
+	}
+
+	@Test (expected=ArrayIndexOutOfBoundsException.class)
+	// OUT_PORT cannot be read
+	public void testOUTPORTreadFaults() {
+		new PortIO().read(Memory.OUT_PORT);
+	}
+
+	@Test (expected=ArrayIndexOutOfBoundsException.class)
+	// IN_PORT cannot be written
+	public void testINPORTwriteFaults() {
+		new PortIO().write(Memory.IN_PORT, 1);
+	}
+
+	@Test (expected=ArrayIndexOutOfBoundsException.class)
+	// STATUS_PORT cannot be written
+	public void testSTATUSPORTwriteFaults() {
+		new PortIO().write(Memory.STATUS_PORT, 1);
+	}
+
+	@Test (expected=ArrayIndexOutOfBoundsException.class)
+	// LOD of OUT_PORT faults in the machine
+	public void testLODoutPortFaults() {
+		model.setCode(0, new Instruction((byte)0b00011000, Memory.OUT_PORT));
+		model.step();
+	}
+
+	@Test
+	// The range analysis only proves the port accesses that PortIO allows
+	public void testLODportRangeAnalysis() {
+		model.setCode(0, new Instruction((byte)0b00011000, Memory.IN_PORT));
+		model.setCode(1, new Instruction((byte)0b00011000, Memory.STATUS_PORT));
+		model.setCode(2, new Instruction((byte)0b00100001, Memory.OUT_PORT));
+		model.setCode(3, new Instruction((byte)0b00010001, 0));
+		RangeAnalysis analysis = RangeAnalysis.analyze(model);
+		for (int pc = 0; pc <= 3; pc++)
+			assertTrue("Safe at " + pc, analysis.isAccessSafe(pc));
+		assertEquals("", analysis.report());
+		int[] faulting = {0b00011000, Memory.OUT_PORT, 0b00100001, Memory.IN_PORT, 0b00100001, Memory.STATUS_PORT};
+		for (int i = 0; i < faulting.length; i += 2) {
+			model.setCode(0, new Instruction((byte)faulting[i], faulting[i+1]));
+			assertFalse("Faults: " + model.getCode(0).getText(), RangeAnalysis.analyze(model).isAccessSafe(0));
+		}
+	}
+
+	@Test
+	// STO indirect is proven only when the pointer is in data memory or OUT_PORT
+	public void testSTOindirectPortRangeAnalysis() {
+		model.setData(7, Memory.OUT_PORT);
+		model.setCode(0, new Instruction((byte)0b00100100, 7));
+		model.setCode(1, new Instruction((byte)0b00010001, 0));
+		assertTrue("Pointer to OUT_PORT", RangeAnalysis.analyze(model).isAccessSafe(0));
+		model.setData(7, Memory.IN_PORT);
+		assertFalse("Pointer to IN_PORT", RangeAnalysis.analyze(model).isAccessSafe(0));
+	}
+
+	@Test
+	// JUMP and JMPZ cost a cycle more only when they read their target from data memory
+	public void testJUMPstandardCosts() {
+		CostModel costs = CostModel.standard();
+		for (String name : new String[] {"JUMP", "JMPZ"}) {
+			assertEquals(name + " relative", 1, costs.getCost(name, 0));
+			assertEquals(name + " immediate", 1, costs.getCost(name, 2));
+			assertEquals(name + " indirect", 2, costs.getCost(name, 4));
+			assertEquals(name + " absolute indirect", 2, costs.getCost(name, 6));
+		}
+		assertEquals("LOD direct", 2, costs.getCost("LOD", 0));
+		assertEquals("LOD immediate", 1, costs.getCost("LOD", 2));
+		assertEquals("LOD indirect", 3, costs.getCost("LOD", 4));
+		assertEquals("HALT", 1, costs.getCost("HALT", 0));
+		model.setCostModel(costs);
+		model.setData(5, 3);
+		setCode(model, new Instruction((byte)0b01010000,2),
+				new Instruction((byte)0b00010001,0),
+				new Instruction((byte)0b01010110,5),
+				new Instruction((byte)0b00010001,0));
+		model.setProgramSize(3);
+		RunResult result = model.run(10);
+		assertTrue("Halted", result.isHalted());
+		assertEquals("Program counter at HALT", 3, result.getPC());
+		assertEquals("Cycles counted", 1 + 2 + 1, result.getCycles());
+	}
+
+	@Test
+	// The cache model counts a repeated LOD as a miss then a hit
+	public void testLODcache() {
+		CacheModel cache = new CacheModel(16, 1, 4, CacheModel.Policy.LRU);
+		model.setCache(cache);
+		model.setData(13, 42);
+		setCode(model, new Instruction((byte)0b00011000,12),
+				new Instruction((byte)0b00011000,13));
+		model.step();
+		model.step();
+		model.setCache(null);
+		assertEquals("First access misses", 1, cache.getMisses(0));
+		assertEquals("Same line hits", 1, cache.getHits(1));
+		assertEquals("Accumulator loaded", 42, model.getAccum());
+	}
+
+	/**
+	 * Reads the data words in order by the instruction at code index 0
+	 */
+	private static void read(CacheModel cache, int... indices) {
+		for (int index : indices)
+			cache.access(0, index, false);
+	}
+
+	@Test
+	// Words 0, 4 and 8 share a set: a direct-mapped cache thrashes on 0 and 4, a 2-way cache does not
+	public void testLODcacheAssociativity() {
+		CacheModel direct = new CacheModel(4, 1, 1, CacheModel.Policy.LRU);
+		read(direct, 0, 4, 0, 4);
+		assertEquals("All conflict misses", 4, direct.getMisses());
+		CacheModel twoWay = new CacheModel(8, 2, 1, CacheModel.Policy.LRU);
+		read(twoWay, 0, 4, 0, 4);
+		assertEquals("Both lines kept", 2, twoWay.getHits());
+		read(twoWay, 1, 5, 3);
+		assertEquals("Other sets are not evicted", 2, twoWay.getHits());
+		read(twoWay, 0, 4);
+		assertEquals(4, twoWay.getHits());
+	}
+
+	@Test
+	// LRU evicts the line used least recently, FIFO the line filled first
+	public void testLODcacheLRUversusFIFO() {
+		CacheModel lru = new CacheModel(8, 2, 1, CacheModel.Policy.LRU);
+		CacheModel fifo = new CacheModel(8, 2, 1, CacheModel.Policy.FIFO);
+		for (CacheModel cache : new CacheModel[] {lru, fifo})
+			read(cache, 0, 4, 0, 8, 0, 4);
+		// LRU: the use of 0 makes 4 the victim of 8, so 0 hits again
+		assertEquals("LRU hits", 2, lru.getHits());
+		assertEquals("LRU misses", 4, lru.getMisses());
+		// FIFO: 0 was filled first and is the victim of 8 despite its use
+		assertEquals("FIFO hits", 1, fifo.getHits());
+		assertEquals("FIFO misses", 5, fifo.getMisses());
+	}
+
+	@Test
+	// RANDOM fills the empty ways first, evicts within the set and repeats its choices
+	public void testLODcacheRandom() {
+		CacheModel[] caches = {new CacheModel(8, 2, 1, CacheModel.Policy.RANDOM),
+				new CacheModel(8, 2, 1, CacheModel.Policy.RANDOM)};
+		for (CacheModel cache : caches) {
+			read(cache, 0, 4, 0, 4, 1);
+			assertEquals("No eviction while a way is empty", 2, cache.getHits());
+			read(cache, 8, 8, 1);
+			assertEquals("The new line and the other set hit", 4, cache.getHits());
+			read(cache, 0, 4, 12, 0, 4, 12, 8);
+		}
+		assertEquals("Same choices", caches[0].getHits(), caches[1].getHits());
+		assertEquals(caches[0].getMisses(), caches[1].getMisses());
+		assertEquals(15, caches[0].getHits() + caches[0].getMisses());
+	}
+
+	@Test
+	// A written line is written back when it is evicted, a line only read is not
+	public void testSTOcacheWriteBack() {
+		CacheModel cache = new CacheModel(4, 1, 1, CacheModel.Policy.LRU);
+		cache.access(0, 0, true);
+		read(cache, 4, 0, 4);
+		assertEquals("Dirty line evicted once", 1, cache.getWriteBacks());
+		cache.access(0, 8, true);
+		cache.access(0, 8, false);
+		assertEquals(1, cache.getWriteBacks());
+		read(cache, 0);
+		assertEquals(2, cache.getWriteBacks());
+	}
+
+	@Test
+	// A block access misses once per line and counts the other words as hits
+	public void testMOVBcacheBlock() {
+		CacheModel cache = new CacheModel(16, 2, 4, CacheModel.Policy.FIFO);
+		cache.accessBlock(3, 2, 8, false);
+		assertEquals("Lines 0, 1 and 2", 3, cache.getMisses(3));
+		assertEquals(5, cache.getHits(3));
+		cache.accessBlock(3, Memory.DATA_SIZE - 2, 10, true);
+		assertEquals("Only the words in data memory", 4, cache.getMisses(3));
+		assertEquals(6, cache.getHits(3));
+	}
+
+	@Test
+	// The branch predictor counts a taken JMPZ immediate it did not predict
+	public void testJMPZimmedPredictor() {
+		BranchPredictor predictor = new BranchPredictor(BranchPredictor.Kind.TWO_BIT);
+		model.setBranchPredictor(predictor);
+		setCode(model, new Instruction((byte)0b01011010,5));
+		model.setAccum(0);
+		model.step();
+		model.setBranchPredictor(null);
+		assertEquals("Program counter jumped", 5, model.getPC());
+		assertEquals("Branch counted", 1, predictor.getBranches(0));
+		assertEquals("Mispredict counted", 1, predictor.getMispredicts(0));
+	}
+
+	@Test
+	// The 2-bit counter of a JMPZ saturates and needs two outcomes against it to flip
+	public void testJMPZimmedPredictorTwoBitCounter() {
+		BranchPredictor predictor = new BranchPredictor(BranchPredictor.Kind.TWO_BIT);
+		// the counter starts weakly not taken: 1 2 3 3 2 3 2 1 0 0 1 2
+		boolean[] taken = {true, true, true, false, true, false, false, false, false, true, true};
+		int[] mispredicts = {1, 1, 1, 2, 2, 3, 4, 4, 4, 5, 6};
+		for (int i = 0; i < taken.length; i++) {
+			predictor.record(3, 0b01011010, 10, taken[i] ? 10 : 4);
+			assertEquals("Outcome " + i, mispredicts[i], predictor.getMispredicts(3));
+		}
+		assertEquals(11, predictor.getBranches());
+	}
+
+	@Test
+	// STATIC predicts the backward JMPZ taken and the forward and unknown ones not taken
+	public void testJMPZpredictorStatic() {
+		BranchPredictor predictor = new BranchPredictor(BranchPredictor.Kind.STATIC);
+		for (int i = 0; i < 3; i++) {
+			predictor.record(5, 0b01011001, -3, 2);
+			predictor.record(6, 0b01011010, 9, 9);
+			predictor.record(7, 0b01011100, 20, 8);
+		}
+		assertEquals("Backward taken", 0, predictor.getMispredicts(5));
+		assertEquals("Forward taken, no learning", 3, predictor.getMispredicts(6));
+		assertEquals("Computed not taken", 0, predictor.getMispredicts(7));
+		predictor.record(5, 0b01011001, -3, 6);
+		assertEquals("Backward not taken", 1, predictor.getMispredicts(5));
+		assertEquals(10, predictor.getBranches());
+	}
+
+	@Test
+	// GSHARE learns an alternating JMPZ from the history, a 2-bit counter never does
+	public void testJMPZpredictorGshare() {
+		BranchPredictor twoBit = new BranchPredictor(BranchPredictor.Kind.TWO_BIT);
+		BranchPredictor gshare = new BranchPredictor(BranchPredictor.Kind.GSHARE, 2);
+		for (int i = 0; i < 40; i++) {
+			twoBit.record(3, 0b01011010, 10, i%2 == 0 ? 10 : 4);
+			gshare.record(3, 0b01011010, 10, i%2 == 0 ? 10 : 4);
+		}
+		assertEquals("Counter flips on every outcome", 40, twoBit.getMispredicts());
+		assertEquals("Only while the history fills", 2, gshare.getMispredicts());
+	}
+
+	@Test
+	// An ADD immediate right after a LOD direct stalls a cycle for the loaded accumulator
+	public void testADDimmedPipelineStall() {
+		PipelineModel pipeline = new PipelineModel();
+		model.addExecutionListener(pipeline);
+		model.setData(12, 41);
+		setCode(model, new Instruction((byte)0b00011000,12),
+				new Instruction((byte)0b00101011,1));
+		model.step();
+		model.step();
+		model.removeExecutionListener(pipeline);
+		assertEquals("Accumulator changed", 42, model.getAccum());
+		assertEquals("Load-use stall", 1, pipeline.getStallCycles(1));
+		assertEquals("Cycles counted", 2 + 4 + 1, pipeline.getCycles());
+	}
+
+	@Test
+	// A JMPZ waits for a loaded accumulator, the flush of the taken branch hides it from the target
+	public void testJMPZimmedPipelineTakenStall() {
+		PipelineModel pipeline = new PipelineModel();
+		model.addExecutionListener(pipeline);
+		setCode(model, new Instruction((byte)0b00011000,12),
+				new Instruction((byte)0b01011010,4),
+				new Instruction((byte)0b00010001,0),
+				new Instruction((byte)0b00010001,0),
+				new Instruction((byte)0b00101011,1));
+		for (int i = 0; i < 3; i++)
+			model.step();
+		model.removeExecutionListener(pipeline);
+		assertEquals("Accumulator changed", 1, model.getAccum());
+		assertEquals("Load-use stall of JMPZ", 1, pipeline.getStallCycles(1));
+		assertEquals("Taken branch flushed", PipelineModel.FLUSH_CYCLES, pipeline.getFlushCycles(1));
+		assertEquals("No stall at the target", 0, pipeline.getStallCycles(4));
+		assertEquals("Cycles counted", 3 + 4 + 1 + PipelineModel.FLUSH_CYCLES, pipeline.getCycles());
+	}
+
+	@Test
+	// A store takes a loaded accumulator in MEM without a stall, an indirect store pays for its pointer
+	public void testSTOpipelineAfterLoad() {
+		PipelineModel pipeline = new PipelineModel();
+		model.addExecutionListener(pipeline);
+		model.setData(12, 7);
+		model.setData(14, 20);
+		setCode(model, new Instruction((byte)0b00011000,12),
+				new Instruction((byte)0b00100001,13),
+				new Instruction((byte)0b00011000,12),
+				new Instruction((byte)0b00100100,14));
+		for (int i = 0; i < 4; i++)
+			model.step();
+		model.removeExecutionListener(pipeline);
+		assertEquals("Stored", 7, model.getData(13));
+		assertEquals("Stored indirect", 7, model.getData(20));
+		assertEquals("Forwarded to STO", 0, pipeline.getStallCycles(1));
+		assertEquals("Pointer read of STO indirect", 1, pipeline.getStallCycles(3));
+		assertEquals("Cycles counted", 4 + 4 + 1, pipeline.getCycles());
+		assertEquals("\nPipeline: 4 instructions, 9 cycles, 1 stall cycles, 0 flush cycles"
+				+ "\nCode index 3: 1 executed, 1 stall cycles, 0 flush cycles", pipeline.report());
+	}
+
+	@Test
+	// A computed JUMP to the next instruction is remembered in the target buffer
+	public void testJUMPindirPredictorNextTarget() {
+		BranchPredictor predictor = new BranchPredictor(BranchPredictor.Kind.TWO_BIT);
+		predictor.record(3, 0b01010101, 5, 4);
+		predictor.record(3, 0b01010101, 5, 4);
+		assertEquals(2, predictor.getBranches(3));
+		assertEquals("Only the first target is unknown", 1, predictor.getMispredicts(3));
+		predictor.record(3, 0b01010101, 5, 9);
+		assertEquals("New target", 2, predictor.getMispredicts(3));
+	}
+
+	@Test
+	// A checkpoint taken after STO restores the word, pc and accumulator as changed data
+	public void testSTOcheckpoint() throws IOException {
+		File file = new File(temp.getRoot(), "run.ckpt");
+		model.setCode(4, new Instruction((byte)0b00100001,12));
+		model.setPC(4);
+		model.setAccum(567);
+		try (Checkpointer checkpointer = Checkpointer.open(model, file, 0)) {
+			assertFalse("New file", checkpointer.isResumed());
+			model.step();
+			checkpointer.checkpoint();
+		}
+		model.setData(12, 0);
+		model.setPC(0);
+		model.setAccum(0);
+		model.clearChangedData();
+		try (Checkpointer checkpointer = Checkpointer.open(model, file, 0)) {
+			assertTrue("Resumed from the file", checkpointer.isResumed());
+		}
+		assertEquals("Word restored", 567, model.getData(12));
+		assertEquals("Restored word changed", 12, model.nextChangedDataIndex(12));
+		assertEquals("Program counter restored", 5, model.getPC());
+		assertEquals("Accumulator restored", 567, model.getAccum());
+	}
+
+	@Test
+	// A mapped pexe runs from the file and loads its data pairs
+	public void testADDloadMapped() throws IOException {
+		File program = TestFixtures.pexe(temp, new Instruction[] {
+				new Instruction((byte)0b00011000,3),
+				new Instruction((byte)0b00101011,2),
+				new Instruction((byte)0b00100001,4),
+				new Instruction((byte)0b00010001,0)}, 3, 40);
+		assertEquals("success", Loader.loadMapped(model, program));
+		assertEquals("Data pair loaded", 40, model.getData(3));
+		assertEquals("Last code index", 3, model.getProgramSize());
+		assertTrue("Halted", model.run(10).isHalted());
+		assertEquals(42, model.getData(4));
+	}
+
+	@Test
+	// A pexe cut inside an argument and a missing file are reported, not mapped
+	public void testLODloadMappedMalformed() throws IOException {
+		File program = temp.newFile("cut.pexe");
+		Files.write(program.toPath(), new byte[] {0b00011000, 0, 0});
+		assertEquals("Cannot load cut.pexe: Instruction 0 is missing its argument",
+				Loader.loadMapped(model, program));
+		assertEquals("Nothing loaded", 0, model.getProgramSize());
+		assertEquals("File none.pexe Not Found",
+				Loader.loadMapped(model, new File(temp.getRoot(), "none.pexe")));
+	}
+
+	private static void setCode(MachineModel core, Instruction... code) {
+		for (int i = 0; i < code.length; i++)
+			core.setCode(i, code[i]);
+	}
+
+	@Test
+	// Round-robin cores take FADD tickets in order and only the first CAS wins the lock
+	public void testCASmultiCoreDeterministic() {
+		MultiCoreMachine machine = new MultiCoreMachine(3);
+		for (int i = 0; i < 3; i++) {
+			MachineModel core = machine.getCore(i);
+			core.setData(0x30 + 2*i, 0x11);
+			core.setData(0x31 + 2*i, i + 1);
+			setCode(core, new Instruction((byte)0b00011011,1),
+					new Instruction((byte)0b10001000,0x10),
+					new Instruction((byte)0b00100001,0x20 + i),
+					new Instruction((byte)0b00011011,0),
+					new Instruction((byte)0b10010101,0x30 + 2*i),
+					new Instruction((byte)0b00010001,0));
+		}
+		assertEquals("Six steps per core", 18, machine.runDeterministic(100, 1));
+		assertEquals("Three tickets", 3, machine.getData(0x10));
+		for (int i = 0; i < 3; i++) {
+			assertTrue("Core " + i + " halted", machine.isHalted(i));
+			assertEquals("Ticket of core " + i, i, machine.getData(0x20 + i));
+			assertEquals("CAS of core " + i, i == 0 ? 1 : 0, machine.getCore(i).getAccum());
+		}
+		assertEquals("Lock taken by core 0", 1, machine.getData(0x11));
+	}
+
+	@Test
+	// A core that fails stops while the other ones run to their HALT
+	public void testDIVmultiCoreFailure() {
+		MultiCoreMachine machine = new MultiCoreMachine(2);
+		setCode(machine.getCore(0), new Instruction((byte)0b01000010,0),
+				new Instruction((byte)0b00010001,0));
+		setCode(machine.getCore(1), new Instruction((byte)0b00011011,1),
+				new Instruction((byte)0b10001000,0x10),
+				new Instruction((byte)0b00010001,0));
+		machine.runDeterministic(100, 2);
+		assertTrue("Division by zero", machine.getFailure(0) instanceof DivideByZeroException);
+		assertEquals("Core 1 halted normally", null, machine.getFailure(1));
+		assertTrue("Core 1 halted", machine.isHalted(1));
+		assertEquals(1, machine.getData(0x10));
+	}
+
+	@Test
+	// FADD from cores on their own threads loses no increment
+	public void testFADDmultiCoreParallel() throws InterruptedException {
+		MultiCoreMachine machine = new MultiCoreMachine(4);
+		for (int i = 0; i < 4; i++) {
+			MachineModel core = machine.getCore(i);
+			core.setData(0x40 + i, 1000);
+			setCode(core, new Instruction((byte)0b00011011,1),
+					new Instruction((byte)0b10001000,0x10),
+					new Instruction((byte)0b00011000,0x40 + i),
+					new Instruction((byte)0b00110011,1),
+					new Instruction((byte)0b00100001,0x40 + i),
+					new Instruction((byte)0b01011010,7),
+					new Instruction((byte)0b01010011,0),
+					new Instruction((byte)0b00010001,0));
+		}
+		machine.runParallel(100000);
+		for (int i = 0; i < 4; i++) {
+			assertTrue("Core " + i + " halted", machine.isHalted(i));
+			assertEquals("No failure", null, machine.getFailure(i));
+		}
+		assertEquals("Every FADD counted", 4000, machine.getData(0x10));
+	}
+}
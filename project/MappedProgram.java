@@ -0,0 +1,86 @@
+package project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The code section of a pexe file that is memory-mapped rather than copied
+ * into Instruction objects. The offsets of the instructions are indexed once
+ * when the file is opened and the opcodes and arguments are then read
+ * straight from the mapped buffer. The data section starts at
+ * getDataOffset() and is left for the Loader to copy into data memory.
+ */
+public class MappedProgram {
+	private MappedByteBuffer buff;
+	private int[] offsets = new int[Memory.CODE_SIZE];
+	private int codeSize = 0;
+	private int dataOffset;
+
+	private MappedProgram(MappedByteBuffer buff) {
+		this.buff = buff;
+	}
+
+	/**
+	 * Maps the file and indexes the offsets of its instructions.
+	 * @param program the pexe file
+	 * @return the mapped program
+	 * @throws IOException if the file cannot be mapped
+	 * @throws CodeAccessException if the program does not fit in code memory
+	 * or an instruction is missing its argument
+	 */
+	static MappedProgram map(File program) throws IOException {
+		MappedProgram mapped;
+		try (FileChannel fChan = FileChannel.open(program.toPath(), StandardOpenOption.READ)) {
+			mapped = new MappedProgram(fChan.map(FileChannel.MapMode.READ_ONLY, 0, fChan.size()));
+		}
+		mapped.index();
+		return mapped;
+	}
+
+	private void index() {
+		int pos = 0;
+		int limit = buff.limit();
+		while (pos < limit) {
+			byte b = buff.get(pos);
+			if (b == -1) {
+				pos++;
+				break;
+			}
+			if (codeSize == Memory.CODE_SIZE)
+				throw new CodeAccessException("Program is larger than code memory");
+			offsets[codeSize++] = pos;
+			pos += InstructionSet.HAS_ARG[b & 0xFF] ? 5 : 1;
+			if (pos > limit)
+				throw new CodeAccessException("Instruction " + (codeSize - 1) + " is missing its argument");
+		}
+		dataOffset = pos;
+	}
+
+	byte getOpcode(int index) {
+		if(index < 0 || index >= codeSize) throw new CodeAccessException("Illegal access to code");
+		return buff.get(offsets[index]);
+	}
+
+	int getArg(int index) {
+		if(index < 0 || index >= codeSize) throw new CodeAccessException("Illegal access to code");
+		int offset = offsets[index];
+		if (!InstructionSet.HAS_ARG[buff.get(offset) & 0xFF])
+			return 0;
+		return buff.getInt(offset + 1);
+	}
+
+	int getCodeSize() {
+		return codeSize;
+	}
+
+	int getDataOffset() {
+		return dataOffset;
+	}
+
+	MappedByteBuffer getBuffer() {
+		return buff;
+	}
+}
@@ -1,14 +1,46 @@
 package project;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
+import java.util.BitSet;
 
 public class Memory {
 	public static final int DATA_SIZE = 512;
 	public static final int CODE_SIZE = 256;
-	private int[] data = new int[DATA_SIZE];
+	// the ports of PortIO are the data indexes just above data memory
+	public static final int IN_PORT = DATA_SIZE;
+	public static final int OUT_PORT = DATA_SIZE + 1;
+	public static final int STATUS_PORT = DATA_SIZE + 2;
+	// data memory is divided in pages for checkpointing
+	public static final int PAGE_WORDS = 32;
+	public static final int PAGES = DATA_SIZE/PAGE_WORDS;
+	// atomic access to the elements of data for FADD and CAS
+	private static final VarHandle DATA_ELEMENT = MethodHandles.arrayElementVarHandle(int[].class);
+	private int[] data;
 	private Instruction[] code = new Instruction[CODE_SIZE];
 	private int changedDataIndex = -1;
+	// one bit per data word written since the consumer last cleared them
+	private BitSet dirtyData = new BitSet(DATA_SIZE);
+	// incremented on every write so consumers can tell cheaply if anything changed
+	private long dataWriteCount = 0;
+	// bit p is set when page p has been written since the last checkpoint
+	private int dirtyPages = (1 << PAGES) - 1;
+	private PortIO ports = new PortIO();
 	private int programSize = 0;
+
+	Memory() {
+		this(new int[DATA_SIZE]);
+	}
+
+	/**
+	 * Memory with its own code but with the given array as data memory,
+	 * used by the cores of a MultiCoreMachine to share their data
+	 * @param data the data memory, of length DATA_SIZE
+	 */
+	Memory(int[] data) {
+		this.data = data;
+	}
 	
 	int[] getData() {
 		return data;
@@ -19,11 +51,76 @@ public class Memory {
 	}
 	
 	int getData(int index) {
+		if (index >= DATA_SIZE)
+			return ports.read(index);
 		return data[index];
 	}
 	
 	void setData(int index, int value) {
+		if (index >= DATA_SIZE) {
+			ports.write(index, value);
+			return;
+		}
 		data[index] = value;
+		changedDataIndex = index;
+		dirtyData.set(index);
+		dirtyPages |= 1 << index/PAGE_WORDS;
+		dataWriteCount++;
+	}
+	
+	/**
+	 * Atomically adds delta to a word of data memory
+	 * @param index the index of the word
+	 * @param delta the value added
+	 * @return the value of the word before the addition
+	 */
+	int fetchAndAddData(int index, int delta) {
+		int retVal = (int)DATA_ELEMENT.getAndAdd(data, index, delta);
+		markDirty(index, index + 1);
+		return retVal;
+	}
+
+	/**
+	 * Atomically sets a word of data memory to update if it is equal
+	 * to expect
+	 * @param index the index of the word
+	 * @param expect the expected value
+	 * @param update the new value
+	 * @return true if the word was updated
+	 */
+	boolean compareAndSetData(int index, int expect, int update) {
+		boolean retVal = DATA_ELEMENT.compareAndSet(data, index, expect, update);
+		if (retVal)
+			markDirty(index, index + 1);
+		return retVal;
+	}
+
+	void copyData(int from, int to, int count) {
+		System.arraycopy(data, from, data, to, count);
+		markDirty(to, to + count);
+	}
+
+	void fillData(int from, int count, int value) {
+		Arrays.fill(data, from, from + count, value);
+		markDirty(from, from + count);
+	}
+
+	void swapData(int i, int j) {
+		int temp = data[i];
+		data[i] = data[j];
+		data[j] = temp;
+		markDirty(i, i + 1);
+		markDirty(j, j + 1);
+	}
+
+	private void markDirty(int from, int to) {
+		if (from < to) {
+			changedDataIndex = to - 1;
+			dirtyData.set(from, to);
+			for (int p = from/PAGE_WORDS; p <= (to - 1)/PAGE_WORDS; p++)
+				dirtyPages |= 1 << p;
+			dataWriteCount++;
+		}
 	}
 	
 	void clearData() {
@@ -31,11 +128,50 @@ public class Memory {
 			data[i] = 0;
 		}
 		changedDataIndex = -1;
+		dirtyData.clear();
+		dirtyPages = (1 << PAGES) - 1;
+		dataWriteCount++;
 	}
 	
+	PortIO getPorts() {
+		return ports;
+	}
+
 	int getChangedDataIndex() {
 		return changedDataIndex;
 	}
+
+	/**
+	 * Returns the first data index at or after from that has been written
+	 * since the last call to clearDirtyData, or -1 if there is none. 
+	 * Consumers loop over the changed words with 
+	 * for (int i = nextDirtyData(0); i >= 0; i = nextDirtyData(i+1))
+	 * @param from the index to start looking at
+	 * @return the next changed index or -1
+	 */
+	int nextDirtyData(int from) {
+		return dirtyData.nextSetBit(from);
+	}
+
+	void clearDirtyData() {
+		dirtyData.clear();
+	}
+
+	long getDataWriteCount() {
+		return dataWriteCount;
+	}
+
+	/**
+	 * Returns the mask of the pages written since the last call to
+	 * clearDirtyPages, bit p for the PAGE_WORDS words from p*PAGE_WORDS
+	 */
+	int getDirtyPages() {
+		return dirtyPages;
+	}
+
+	void clearDirtyPages() {
+		dirtyPages = 0;
+	}
 	
 	int getProgramSize() {
 		return programSize;
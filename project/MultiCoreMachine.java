@@ -0,0 +1,126 @@
+package project;
+
+/**
+ * A machine with several cores that share one data memory. Each core is a
+ * MachineModel with its own code memory, accumulator and program counter,
+ * so a program is loaded into a core with the Loader as usual. The data
+ * section of every loaded program is written into the shared memory.
+ * <p>
+ * Memory model: the plain data accesses of LOD, STO, the arithmetic
+ * instructions and the block instructions are racy. Another core can see
+ * them late, in a different order, or (for MOVB, FILL and SWAP) partly
+ * done. FADD and CAS are atomic read-modify-write operations with volatile
+ * semantics: all the cores see them in a single order, and the writes a
+ * core made before one of them are visible to a core that reads its result.
+ * A program that shares data must therefore publish it with FADD or CAS,
+ * for example by setting a flag with CAS after writing the data and
+ * reading the flag with FADD #0 before reading the data.
+ * <p>
+ * runParallel runs each core on its own thread. runDeterministic runs the
+ * cores round-robin on the caller's thread, which gives a reproducible
+ * interleaving for testing.
+ */
+public class MultiCoreMachine {
+	private int[] data = new int[Memory.DATA_SIZE];
+	private MachineModel[] cores;
+	private boolean[] halted;
+	private RuntimeException[] failures;
+
+	public MultiCoreMachine(int coreCount) {
+		if (coreCount < 1)
+			throw new IllegalArgumentException("A machine needs at least one core");
+		cores = new MachineModel[coreCount];
+		halted = new boolean[coreCount];
+		failures = new RuntimeException[coreCount];
+		for (int i = 0; i < coreCount; i++) {
+			int core = i;
+			// withGUI is true so that HALT stops the core instead of the JVM
+			cores[i] = new MachineModel(true, () -> halted[core] = true, new Memory(data));
+		}
+	}
+
+	public int getCoreCount() {
+		return cores.length;
+	}
+
+	public MachineModel getCore(int i) {
+		return cores[i];
+	}
+
+	public int getData(int index) {
+		return data[index];
+	}
+
+	public boolean isHalted(int i) {
+		return halted[i];
+	}
+
+	/**
+	 * Returns the exception that stopped core i during the last run, or
+	 * null if it halted normally or ran out of steps
+	 */
+	public RuntimeException getFailure(int i) {
+		return failures[i];
+	}
+
+	/**
+	 * Runs every core on its own thread until it halts, fails or has
+	 * executed maxStepsPerCore instructions.
+	 * @param maxStepsPerCore the limit on the steps of each core
+	 * @throws InterruptedException if the caller is interrupted while
+	 * waiting for the cores
+	 */
+	public void runParallel(long maxStepsPerCore) throws InterruptedException {
+		Thread[] threads = new Thread[cores.length];
+		for (int i = 0; i < cores.length; i++) {
+			int core = i;
+			halted[core] = false;
+			failures[core] = null;
+			threads[i] = new Thread(() -> {
+				try {
+					for (long n = 0; n < maxStepsPerCore && !halted[core]; n++)
+						cores[core].step();
+				} catch (RuntimeException e) {
+					failures[core] = e;
+				}
+			}, "core-" + i);
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+	}
+
+	/**
+	 * Runs the cores round-robin on the caller's thread, quantum steps at
+	 * a time, until every core has halted or failed or maxSteps steps have
+	 * been executed in total.
+	 * @param maxSteps the limit on the steps of all the cores together
+	 * @param quantum the number of steps a core runs before the next core
+	 * @return the number of steps executed
+	 */
+	public long runDeterministic(long maxSteps, int quantum) {
+		if (quantum < 1)
+			throw new IllegalArgumentException("The quantum must be positive");
+		for (int i = 0; i < cores.length; i++) {
+			halted[i] = false;
+			failures[i] = null;
+		}
+		long steps = 0;
+		boolean running = true;
+		while (running && steps < maxSteps) {
+			running = false;
+			for (int i = 0; i < cores.length; i++) {
+				for (int q = 0; q < quantum && !halted[i] && steps < maxSteps; q++) {
+					steps++;
+					try {
+						cores[i].step();
+					} catch (RuntimeException e) {
+						failures[i] = e;
+					}
+				}
+				running |= !halted[i];
+			}
+		}
+		return steps;
+	}
+}
@@ -0,0 +1,290 @@
+package project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Splits pasm source into lines and the lines into tokens without creating
+ * strings. The source is read as bytes, from an array or from a channel
+ * through a reusable buffer, and a token is only a start and an end index
+ * in that buffer. The lines end with \n, \r or \r\n, as for
+ * BufferedReader.readLine, and the tokens are separated by the bytes from
+ * 0 to 0x20, which String.trim also removes.
+ * <p>
+ * The mnemonics are found with a perfect hash of their first four letters
+ * in upper case, so a token is compared to a single mnemonic. The hex
+ * arguments are parsed in place with the rules of Integer.parseInt(s, 16):
+ * an optional sign, at least one digit and no overflow.
+ * <p>
+ * After nextLine() the lexer describes the current line. A lexer is used
+ * by a single thread, the assemblers make one for each call.
+ */
+public class PasmLexer {
+	// the positions of the first MAX_TOKENS tokens of a line are kept
+	public static final int MAX_TOKENS = 4;
+	private static final int TABLE_BITS = 6;
+	private static final int[] TABLE_KEY = new int[1 << TABLE_BITS];
+	private static final int[] TABLE_OPCODE = new int[1 << TABLE_BITS];
+	private static final int MULTIPLIER;
+	private static final int DATA_KEY = key("DATA".getBytes(), 0, 4);
+
+	static {
+		// the first odd multiplier that gives every mnemonic its own slot
+		int m = 1;
+		while (!fill(m))
+			m += 2;
+		MULTIPLIER = m;
+	}
+
+	private ReadableByteChannel channel;
+	private byte[] buff;
+	private int pos = 0;
+	private int limit;
+	private boolean endOfInput;
+	private int lineNumber = 0;
+	private int lineStart;
+	private int lineEnd;
+	private int tokenCount;
+	private int[] tokenStart = new int[MAX_TOKENS];
+	private int[] tokenEnd = new int[MAX_TOKENS];
+	private int value;
+
+	/**
+	 * @param source the bytes of the source
+	 */
+	public PasmLexer(byte[] source) {
+		buff = source;
+		limit = source.length;
+		endOfInput = true;
+	}
+
+	/**
+	 * @param channel the channel of the source, which is read as the lines
+	 * are needed and is not closed by the lexer
+	 */
+	public PasmLexer(ReadableByteChannel channel) {
+		this.channel = channel;
+		buff = new byte[1 << 16];
+		limit = 0;
+		endOfInput = false;
+	}
+
+	private static boolean fill(int m) {
+		Arrays.fill(TABLE_OPCODE, -1);
+		for (int op = 0; op < InstructionSet.OPCODE_COUNT; op++) {
+			byte[] name = InstructionSet.mnemonic(op).getBytes();
+			int key = key(name, 0, name.length);
+			int slot = (key*m) >>> (32 - TABLE_BITS);
+			if (TABLE_OPCODE[slot] >= 0)
+				return false;
+			TABLE_KEY[slot] = key;
+			TABLE_OPCODE[slot] = op;
+		}
+		return true;
+	}
+
+	/**
+	 * Packs up to four bytes, with the lower case letters in upper case,
+	 * into an int
+	 */
+	private static int key(byte[] b, int start, int end) {
+		int retVal = 0;
+		for (int i = start; i < end; i++) {
+			int c = b[i];
+			if (c >= 'a' && c <= 'z')
+				c -= 'a' - 'A';
+			retVal = (retVal << 8) | (c & 0xFF);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Moves to the next line of the source
+	 * @return false at the end of the source
+	 * @throws IOException if the channel cannot be read
+	 */
+	public boolean nextLine() throws IOException {
+		int scan = pos;
+		while (true) {
+			while (scan < limit && buff[scan] != '\n' && buff[scan] != '\r')
+				scan++;
+			if (endOfInput)
+				break;
+			// a \r at the end of the buffer may be followed by a \n
+			if (scan < limit && (buff[scan] == '\n' || scan + 1 < limit))
+				break;
+			int offset = scan - pos;
+			refill();
+			scan = pos + offset;
+		}
+		if (pos == limit)
+			return false;
+		lineNumber++;
+		lineStart = pos;
+		lineEnd = scan;
+		pos = scan;
+		if (pos < limit) {
+			if (buff[pos] == '\r' && pos + 1 < limit && buff[pos + 1] == '\n')
+				pos += 2;
+			else
+				pos++;
+		}
+		tokenize();
+		return true;
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer, grows it if they
+	 * fill it, and reads from the channel
+	 */
+	private void refill() throws IOException {
+		int remaining = limit - pos;
+		if (remaining == buff.length)
+			buff = Arrays.copyOf(buff, 2*buff.length);
+		System.arraycopy(buff, pos, buff, 0, remaining);
+		pos = 0;
+		limit = remaining;
+		ByteBuffer target = ByteBuffer.wrap(buff, limit, buff.length - limit);
+		int n = channel.read(target);
+		if (n < 0)
+			endOfInput = true;
+		else
+			limit += n;
+	}
+
+	private void tokenize() {
+		tokenCount = 0;
+		int i = lineStart;
+		while (true) {
+			while (i < lineEnd && isWhitespace(buff[i]))
+				i++;
+			if (i == lineEnd)
+				return;
+			int start = i;
+			while (i < lineEnd && !isWhitespace(buff[i]))
+				i++;
+			if (tokenCount < MAX_TOKENS) {
+				tokenStart[tokenCount] = start;
+				tokenEnd[tokenCount] = i;
+			}
+			tokenCount++;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return true if the line has no token
+	 */
+	public boolean isBlank() {
+		return tokenCount == 0;
+	}
+
+	/**
+	 * @return true if the line starts with a space or a tab
+	 */
+	public boolean startsWithWhitespace() {
+		return lineEnd > lineStart && (buff[lineStart] == ' ' || buff[lineStart] == '\t');
+	}
+
+	public int getTokenCount() {
+		return tokenCount;
+	}
+
+	/**
+	 * @param token the index of a token of the line
+	 * @return the opcode of the mnemonic that is the token in any case,
+	 * or -1 if the token is not a mnemonic
+	 */
+	public int getOpcode(int token) {
+		int start = tokenStart[token];
+		int end = tokenEnd[token];
+		if (end - start > 4)
+			return -1;
+		int key = key(buff, start, end);
+		int slot = (key*MULTIPLIER) >>> (32 - TABLE_BITS);
+		return TABLE_OPCODE[slot] >= 0 && TABLE_KEY[slot] == key ? TABLE_OPCODE[slot] : -1;
+	}
+
+	/**
+	 * @param token the index of a token of the line
+	 * @return true if the token is DATA in any case
+	 */
+	public boolean isData(int token) {
+		return tokenEnd[token] - tokenStart[token] == 4
+				&& key(buff, tokenStart[token], tokenEnd[token]) == DATA_KEY;
+	}
+
+	/**
+	 * @param token the index of a token of the line
+	 * @return true if the token has no lower case letter
+	 */
+	public boolean isUpperCase(int token) {
+		for (int i = tokenStart[token]; i < tokenEnd[token]; i++)
+			if (buff[i] >= 'a' && buff[i] <= 'z')
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param token the index of a token of the line
+	 * @return the flags given by the first character of the token: 2 for
+	 * #, 4 for @, 6 for &amp; and 0 otherwise
+	 */
+	public int getFlags(int token) {
+		switch (buff[tokenStart[token]]) {
+		case '#':
+			return 2;
+		case '@':
+			return 4;
+		case '&':
+			return 6;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Parses a token as a hex number, whose value is then returned by
+	 * getValue()
+	 * @param token the index of a token of the line
+	 * @param prefixed true to skip the #, @ or &amp; that starts the token
+	 * @return false if the token is not a hex int
+	 */
+	public boolean parseHex(int token, boolean prefixed) {
+		int i = tokenStart[token];
+		int end = tokenEnd[token];
+		if (prefixed && getFlags(token) != 0)
+			i++;
+		boolean negative = false;
+		if (i < end && (buff[i] == '-' || buff[i] == '+')) {
+			negative = buff[i] == '-';
+			i++;
+		}
+		if (i == end)
+			return false;
+		long retVal = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(buff[i], 16);
+			if (digit < 0)
+				return false;
+			retVal = 16*retVal + digit;
+			if (retVal > (negative ? 1L << 31 : Integer.MAX_VALUE))
+				return false;
+		}
+		value = (int) (negative ? -retVal : retVal);
+		return true;
+	}
+
+	public int getValue() {
+		return value;
+	}
+}
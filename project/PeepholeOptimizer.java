@@ -0,0 +1,205 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Peephole optimizer for assembled code, used by SimpleAssembler between
+ * parsing and emission. It removes instructions whose effect is lost or
+ * repeated in a window of up to three instructions:
+ * <ul>
+ * <li>NOP, ADD #0, SUB #0, MUL #1, DIV #1 and a JUMP or JMPZ to the next
+ * instruction</li>
+ * <li>the LOD in STO x; LOD x, the second STO in LOD x; STO x</li>
+ * <li>the first STO in STO x; STO x, the first LOD in LOD a; LOD b</li>
+ * <li>both NOTs in X; NOT; NOT when X leaves 0 or 1 in the accumulator</li>
+ * <li>the ADD or SUB in LOD #k; ADD #m and LOD #k; SUB #m, folded into the
+ * LOD, and the JMPZ in LOD #k; JMPZ when k is not 0, so SUB #1; JMPZ
+ * costs nothing when the count is known</li>
+ * </ul>
+ * An instruction that is removed because of the instruction before it is
+ * never a jump target. The relative and immediate JUMP/JMPZ targets are
+ * relocated after each removal. Accesses to the ports are never removed,
+ * nor are accesses that could fault. A program with computed jumps
+ * (flags 4 or 6 of JUMP or JMPZ) is left unchanged, since their targets
+ * are not known.
+ */
+public class PeepholeOptimizer {
+	private static final int NOP = Instruction.opcodes.get("NOP");
+	private static final int NOT = Instruction.opcodes.get("NOT");
+	private static final int LOD = Instruction.opcodes.get("LOD");
+	private static final int STO = Instruction.opcodes.get("STO");
+	private static final int ADD = Instruction.opcodes.get("ADD");
+	private static final int SUB = Instruction.opcodes.get("SUB");
+	private static final int MUL = Instruction.opcodes.get("MUL");
+	private static final int DIV = Instruction.opcodes.get("DIV");
+	private static final int AND = Instruction.opcodes.get("AND");
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+	private static final int CMPL = Instruction.opcodes.get("CMPL");
+	private static final int CMPZ = Instruction.opcodes.get("CMPZ");
+	private static final int CAS = Instruction.opcodes.get("CAS");
+	private static final String[] RULES = {"no effect", "STO x; LOD x",
+			"LOD x; STO x", "STO x; STO x", "LOD a; LOD b", "X; NOT; NOT",
+			"LOD #k; ADD/SUB #m", "LOD #k; JMPZ"};
+
+	private List<Instruction> code;
+	private int[] removed = new int[RULES.length];
+
+	private PeepholeOptimizer(List<Instruction> code) {
+		this.code = new ArrayList<>(code);
+	}
+
+	/**
+	 * Optimizes the code of a program.
+	 * @param code the instructions of the program, which are not changed
+	 * @param report if not null, receives the number of instructions
+	 * removed by each rule or the reason why the code was not optimized
+	 * @return the optimized instructions
+	 */
+	public static List<Instruction> optimize(List<Instruction> code, StringBuilder report) {
+		PeepholeOptimizer optimizer = new PeepholeOptimizer(code);
+		String problem = optimizer.checkJumps();
+		if (problem != null) {
+			if (report != null)
+				report.append("\nPeephole optimizer: code not optimized, " + problem);
+			return new ArrayList<>(code);
+		}
+		while (optimizer.rewrite())
+			;
+		if (report != null) {
+			report.append("\nPeephole optimizer: " + (code.size() - optimizer.code.size())
+					+ " of " + code.size() + " instructions removed");
+			for (int r = 0; r < RULES.length; r++)
+				if (optimizer.removed[r] > 0)
+					report.append("\n" + RULES[r] + ": " + optimizer.removed[r]);
+		}
+		return optimizer.code;
+	}
+
+	private String checkJumps() {
+		for (int i = 0; i < code.size(); i++) {
+			Instruction instr = code.get(i);
+			if (isJump(instr)) {
+				if ((instr.opcode & 6) >= 4)
+					return "it has computed jumps";
+				int target = target(i, instr);
+				if (target < 0 || target > code.size())
+					return "a jump leaves the program";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Applies the first rule that matches and returns false if none does
+	 */
+	private boolean rewrite() {
+		int n = code.size();
+		boolean[] isTarget = new boolean[n + 1];
+		for (int i = 0; i < n; i++)
+			if (isJump(code.get(i)))
+				isTarget[target(i, code.get(i))] = true;
+		for (int i = 0; i < n; i++) {
+			Instruction a = code.get(i);
+			Instruction b = i + 1 < n ? code.get(i + 1) : null;
+			Instruction c = i + 2 < n ? code.get(i + 2) : null;
+			if (hasNoEffect(i, a)) {
+				remove(i, 0);
+				return true;
+			}
+			if (b == null)
+				continue;
+			if (is(a, STO, 0) && is(b, LOD, 0) && a.arg == b.arg && inData(a.arg)
+					&& !isTarget[i + 1]) {
+				remove(i + 1, 1);
+				return true;
+			}
+			if (is(a, LOD, 0) && is(b, STO, 0) && a.arg == b.arg && inData(a.arg)
+					&& !isTarget[i + 1]) {
+				remove(i + 1, 2);
+				return true;
+			}
+			if (is(a, STO, 0) && is(b, STO, 0) && a.arg == b.arg && inData(a.arg)) {
+				remove(i, 3);
+				return true;
+			}
+			if (((is(a, LOD, 0) && inData(a.arg)) || is(a, LOD, 2)) && op(b) == LOD) {
+				remove(i, 4);
+				return true;
+			}
+			if (c != null && isBoolean(a) && is(b, NOT, 0) && is(c, NOT, 0)
+					&& !isTarget[i + 1] && !isTarget[i + 2]) {
+				remove(i + 2, 5);
+				remove(i + 1, 5);
+				return true;
+			}
+			if (is(a, LOD, 2) && (is(b, ADD, 2) || is(b, SUB, 2)) && !isTarget[i + 1]) {
+				code.set(i, new Instruction(a.opcode, op(b) == ADD ? a.arg + b.arg : a.arg - b.arg));
+				remove(i + 1, 6);
+				return true;
+			}
+			if (is(a, LOD, 2) && a.arg != 0 && op(b) == JMPZ && !isTarget[i + 1]) {
+				remove(i + 1, 7);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasNoEffect(int i, Instruction instr) {
+		int op = op(instr);
+		if (is(instr, NOP, 0))
+			return true;
+		if ((op == ADD || op == SUB) && is(instr, op, 2) && instr.arg == 0)
+			return true;
+		if ((op == MUL || op == DIV) && is(instr, op, 2) && instr.arg == 1)
+			return true;
+		return isJump(instr) && target(i, instr) == i + 1;
+	}
+
+	private boolean isBoolean(Instruction instr) {
+		int op = op(instr);
+		return op == NOT || op == AND || op == CMPL || op == CMPZ || op == CAS;
+	}
+
+	/**
+	 * Removes the instruction at index k and relocates the jumps. A jump
+	 * to k goes to the instruction that follows it.
+	 */
+	private void remove(int k, int rule) {
+		for (int i = 0; i < code.size(); i++) {
+			Instruction instr = code.get(i);
+			if (i == k || !isJump(instr))
+				continue;
+			int target = target(i, instr);
+			int newTarget = target > k ? target - 1 : target;
+			int newIndex = i > k ? i - 1 : i;
+			int arg = (instr.opcode & 6) == 0 ? newTarget - newIndex : newTarget;
+			code.set(i, new Instruction(instr.opcode, arg));
+		}
+		code.remove(k);
+		removed[rule]++;
+	}
+
+	private static boolean isJump(Instruction instr) {
+		return op(instr) == JUMP || op(instr) == JMPZ;
+	}
+
+	private static int target(int i, Instruction instr) {
+		return (instr.opcode & 6) == 0 ? i + instr.arg : instr.arg;
+	}
+
+	private static int op(Instruction instr) {
+		return InstructionSet.HANDLER[instr.opcode & 0xFF];
+	}
+
+	private static boolean is(Instruction instr, int op, int flags) {
+		return op(instr) == op && (instr.opcode & 6) == flags;
+	}
+
+	// direct accesses to the ports and outside data memory are kept
+	private static boolean inData(int index) {
+		return index >= 0 && index < Memory.DATA_SIZE;
+	}
+}
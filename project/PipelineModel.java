@@ -0,0 +1,148 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * A timing model of a classic 5-stage pipeline (IF, ID, EX, MEM, WB)
+ * running the Pippin instruction set. It is an ExecutionListener, so it
+ * follows the instructions a MachineModel executes and costs nothing when
+ * it is not attached.
+ * <p>
+ * The accumulator is forwarded to the next instruction. An immediate
+ * operation or NOT produces it at the end of EX, an operation with a
+ * memory operand at the end of MEM. A consumer needs it at the start of
+ * EX (NOT, JMPZ and immediate operations) or at the start of MEM (stores
+ * and operations with a memory operand), so an accumulator produced in
+ * MEM and needed in EX by the next instruction costs a 1-cycle stall.
+ * An indirect operand needs an extra memory read, which costs 1 cycle,
+ * and so does a special (&amp;) jump target. A taken jump is resolved in
+ * EX and flushes the 2 instructions fetched after it.
+ * <p>
+ * The counts are kept per code index; the total cycles include the 4
+ * cycles to fill the pipeline.
+ */
+public class PipelineModel implements ExecutionListener {
+	public static final int STAGES = 5;
+	public static final int FLUSH_CYCLES = 2;
+	private static final int EX = 3;
+	private static final int MEM = 4;
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+	// indexed by the unsigned opcode byte: the stage that produces the
+	// accumulator (0 if none), the stage that needs it (0 if none) and
+	// the extra cycles of an indirect operand
+	private static final byte[] PRODUCE = new byte[256];
+	private static final byte[] CONSUME = new byte[256];
+	private static final byte[] EXTRA = new byte[256];
+	private long instructions = 0;
+	private long stallCycles = 0;
+	private long flushCycles = 0;
+	private int producedLate = 0;
+	private long[] counts = new long[Memory.CODE_SIZE];
+	private long[] stalls = new long[Memory.CODE_SIZE];
+	private long[] flushes = new long[Memory.CODE_SIZE];
+
+	static {
+		String[] late = {"LOD", "ADD", "SUB", "MUL", "DIV", "AND"};
+		for (int b = 0; b < 256; b++) {
+			int op = InstructionSet.HANDLER[b];
+			if (op < 0)
+				continue;
+			String name = InstructionSet.MNEMONIC[b];
+			int mode = InstructionSet.MODE[b];
+			boolean memoryOperand = mode == 0 || mode == 2;
+			if (Arrays.asList(late).contains(name)) {
+				PRODUCE[b] = (byte) (memoryOperand ? MEM : EX);
+				if (!name.equals("LOD"))
+					CONSUME[b] = (byte) (memoryOperand ? MEM : EX);
+			} else if (name.equals("NOT")) {
+				PRODUCE[b] = EX;
+				CONSUME[b] = EX;
+			} else if (name.equals("CMPL") || name.equals("CMPZ")) {
+				PRODUCE[b] = MEM;
+			} else if (name.equals("FADD") || name.equals("CAS")) {
+				PRODUCE[b] = MEM;
+				CONSUME[b] = MEM;
+			} else if (name.equals("STO") || name.equals("MOVB") || name.equals("FILL")) {
+				CONSUME[b] = MEM;
+			} else if (name.equals("JMPZ")) {
+				CONSUME[b] = EX;
+			}
+			if (mode == 2 || ((op == JUMP || op == JMPZ) && mode == 3))
+				EXTRA[b] = 1;
+		}
+	}
+
+	/**
+	 * Clears the counts, as if the pipeline were empty
+	 */
+	public void reset() {
+		instructions = 0;
+		stallCycles = 0;
+		flushCycles = 0;
+		producedLate = 0;
+		Arrays.fill(counts, 0);
+		Arrays.fill(stalls, 0);
+		Arrays.fill(flushes, 0);
+	}
+
+	@Override
+	public void executed(int pc, byte opcode, int arg, int nextPC) {
+		int b = opcode & 0xFF;
+		int stall = EXTRA[b];
+		if (CONSUME[b] != 0 && producedLate > CONSUME[b])
+			stall++;
+		producedLate = PRODUCE[b];
+		int op = InstructionSet.HANDLER[b];
+		int flush = (op == JUMP || op == JMPZ) && nextPC != pc + 1 ? FLUSH_CYCLES : 0;
+		instructions++;
+		stallCycles += stall;
+		flushCycles += flush;
+		if (pc >= 0 && pc < Memory.CODE_SIZE) {
+			counts[pc]++;
+			stalls[pc] += stall;
+			flushes[pc] += flush;
+		}
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public long getCycles() {
+		if (instructions == 0)
+			return 0;
+		return instructions + STAGES - 1 + stallCycles + flushCycles;
+	}
+
+	public long getStallCycles() {
+		return stallCycles;
+	}
+
+	public long getFlushCycles() {
+		return flushCycles;
+	}
+
+	public long getStallCycles(int pc) {
+		return stalls[pc];
+	}
+
+	public long getFlushCycles(int pc) {
+		return flushes[pc];
+	}
+
+	/**
+	 * Lists the totals and the cycles lost by each instruction
+	 * @return one line per item
+	 */
+	public String report() {
+		StringBuilder buff = new StringBuilder();
+		buff.append("\nPipeline: " + instructions + " instructions, " + getCycles()
+				+ " cycles, " + stallCycles + " stall cycles, " + flushCycles + " flush cycles");
+		for (int pc = 0; pc < counts.length; pc++)
+			if (stalls[pc] + flushes[pc] > 0)
+				buff.append("\nCode index " + pc + ": " + counts[pc] + " executed, "
+						+ stalls[pc] + " stall cycles, " + flushes[pc] + " flush cycles");
+		return buff.toString();
+	}
+}
@@ -0,0 +1,119 @@
+package project;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The input and output ports that are mapped into the data addresses just
+ * above data memory. Reading Memory.IN_PORT takes the next word of the
+ * input, reading Memory.STATUS_PORT gives 1 if there is another input word
+ * and 0 at the end of the input, and writing Memory.OUT_PORT appends a word
+ * to the output.
+ * <p>
+ * The input is either an IntBuffer provided by the host or a channel of
+ * 4-byte big-endian words, and the output is a channel in the same format.
+ * Channel transfers go through direct buffers of BUFFER_WORDS words, so a
+ * program pays for a read or write system call only once per buffer.
+ * With nothing attached the input is empty and the output is discarded.
+ */
+public class PortIO {
+	public static final int BUFFER_WORDS = 4096;
+	private IntBuffer inWords;
+	private ReadableByteChannel inChannel;
+	private boolean inEnded = true;
+	private ByteBuffer inBytes = ByteBuffer.allocateDirect(4*BUFFER_WORDS);
+	private WritableByteChannel outChannel;
+	private ByteBuffer outBytes = ByteBuffer.allocateDirect(4*BUFFER_WORDS);
+
+	PortIO() {
+		inBytes.limit(0);
+	}
+
+	void attachInput(IntBuffer words) {
+		inWords = words;
+		inChannel = null;
+		inEnded = true;
+	}
+
+	void attachInput(ReadableByteChannel channel) {
+		inWords = null;
+		inChannel = channel;
+		inEnded = false;
+		inBytes.limit(0);
+	}
+
+	void attachOutput(WritableByteChannel channel) {
+		flush();
+		outChannel = channel;
+	}
+
+	int read(int index) {
+		if (index == Memory.IN_PORT) {
+			if (inWords != null)
+				return inWords.hasRemaining() ? inWords.get() : 0;
+			return fill() ? inBytes.getInt() : 0;
+		}
+		if (index == Memory.STATUS_PORT) {
+			if (inWords != null)
+				return inWords.hasRemaining() ? 1 : 0;
+			return fill() ? 1 : 0;
+		}
+		throw new ArrayIndexOutOfBoundsException("Index " + index + " is not a readable port");
+	}
+
+	void write(int index, int value) {
+		if (index != Memory.OUT_PORT)
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " is not a writable port");
+		if (outChannel == null)
+			return;
+		outBytes.putInt(value);
+		if (!outBytes.hasRemaining())
+			flush();
+	}
+
+	/**
+	 * Writes the buffered output words to the output channel
+	 */
+	void flush() {
+		if (outChannel == null || outBytes.position() == 0)
+			return;
+		outBytes.flip();
+		try {
+			while (outBytes.hasRemaining())
+				outChannel.write(outBytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			outBytes.clear();
+		}
+	}
+
+	/**
+	 * Makes sure a whole input word is buffered, reading from the input
+	 * channel if needed. Returns false at the end of the input.
+	 */
+	private boolean fill() {
+		if (inBytes.remaining() >= 4)
+			return true;
+		if (inEnded)
+			return false;
+		inBytes.compact();
+		try {
+			while (inBytes.position() < 4) {
+				if (inChannel.read(inBytes) < 0) {
+					inEnded = true;
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			inBytes.flip();
+		}
+		return inBytes.remaining() >= 4;
+	}
+}
@@ -0,0 +1,149 @@
+package project;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Static verifier for a loaded program. Starting at code index 0 it follows
+ * every reachable instruction and proves that the instruction has valid
+ * parity and legal flags and that its successors (the next instruction,
+ * or the target of a relative or immediate JUMP/JMPZ) are instructions of
+ * the program. A program that passes runs in the verified mode of
+ * MachineModel, which skips those checks.
+ * <p>
+ * The targets of computed jumps (the indirect @ and special &amp; modes)
+ * cannot be proven. If the program contains one, every instruction of the
+ * program is verified, since any of them could be the target, and the
+ * machine keeps only a range check on the fetch after a computed jump.
+ * The instructions that were not reached are not checked: the machine
+ * executes them with every check if setPC moves to one of them.
+ */
+public class ProgramVerifier {
+	private static final int HALT = Instruction.opcodes.get("HALT");
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+
+	private MachineModel model;
+	private int size;
+	private StringBuilder error;
+	private boolean[] visited;
+	private boolean[] computedJump;
+	private boolean hasComputedJumps = false;
+
+	private ProgramVerifier(MachineModel model, StringBuilder error) {
+		this.model = model;
+		this.error = error;
+		size = model.getProgramSize() + 1;
+		visited = new boolean[size];
+		computedJump = new boolean[size];
+	}
+
+	/**
+	 * Verifies the program loaded in the model and, if it passes, switches
+	 * the model to its verified mode. The verified mode is cancelled
+	 * when the code is changed.
+	 * @param model the machine with a loaded program
+	 * @param error the StringBuilder to store the description of the
+	 * errors found
+	 * @return true if the program was verified
+	 */
+	public static boolean verify(MachineModel model, StringBuilder error) {
+		if (error == null)
+			throw new IllegalArgumentException("Coding error: the error buffer is null");
+		ProgramVerifier verifier = new ProgramVerifier(model, error);
+		if (!verifier.check())
+			return false;
+		model.setVerified(verifier.computedJump, verifier.visited);
+		return true;
+	}
+
+	private boolean check() {
+		int errors = error.length();
+		Deque<Integer> work = new ArrayDeque<>();
+		work.push(0);
+		visited[0] = true;
+		while (!work.isEmpty()) {
+			int pc = work.pop();
+			for (int next : checkInstruction(pc)) {
+				if (!visited[next]) {
+					visited[next] = true;
+					work.push(next);
+				}
+			}
+		}
+		if (hasComputedJumps) {
+			// any instruction can be the target of a computed jump
+			for (int pc = 0; pc < size; pc++) {
+				if (!visited[pc]) {
+					visited[pc] = true;
+					checkInstruction(pc);
+				}
+			}
+		}
+		return error.length() == errors;
+	}
+
+	/**
+	 * Checks one instruction and returns its successors that are proven
+	 * to be in the program.
+	 */
+	private int[] checkInstruction(int pc) {
+		Instruction instr = model.getCode(pc);
+		if (instr == null) {
+			error.append("\nError at code index " + pc + ": no instruction");
+			return new int[0];
+		}
+		int b = instr.opcode & 0xFF;
+		if (!InstructionSet.PARITY_OK[b]) {
+			error.append("\nError at code index " + pc + ": parity check fails");
+			return new int[0];
+		}
+		if (InstructionSet.HANDLER[b] < 0) {
+			error.append("\nError at code index " + pc + ": illegal opcode");
+			return new int[0];
+		}
+		if (!InstructionSet.LEGAL[b]) {
+			error.append("\nError at code index " + pc + ": illegal flags for "
+					+ InstructionSet.MNEMONIC[b]);
+			return new int[0];
+		}
+		int[] succ = successors(pc, instr);
+		if (succ == null) {
+			computedJump[pc] = true;
+			hasComputedJumps = true;
+			succ = InstructionSet.HANDLER[b] == JMPZ ? new int[] {pc+1} : new int[0];
+		}
+		for (int next : succ) {
+			if (next < 0 || next >= size || model.getCode(next) == null) {
+				error.append("\nError at code index " + pc + ": next instruction "
+						+ next + " is outside the program");
+				return new int[0];
+			}
+		}
+		return succ;
+	}
+
+	/**
+	 * Returns the code indexes that can follow the instruction at pc,
+	 * or null if the instruction is a computed jump (flags 4 or 6 of
+	 * JUMP or JMPZ) whose target depends on data memory.
+	 * @param pc the code index of the instruction
+	 * @param instr the instruction at pc
+	 * @return the successor indexes or null
+	 */
+	static int[] successors(int pc, Instruction instr) {
+		int op = (instr.opcode & 0xFF)/8;
+		int flags = instr.opcode & 6;
+		if (op == HALT)
+			return new int[0];
+		boolean jump = op == JUMP;
+		if (!jump && op != JMPZ)
+			return new int[] {pc+1};
+		if (flags == 4 || flags == 6)
+			return null;
+		int target = flags == 0 ? pc + instr.arg : instr.arg;
+		if (jump || target == pc+1)
+			return new int[] {target};
+		return new int[] {pc+1, target};
+	}
+}
@@ -0,0 +1,563 @@
+package project;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Scanner;
+
+/**
+ * Interval analysis of a loaded program. For every reachable instruction it
+ * computes a range [lo, hi] for the accumulator and for every word of data
+ * memory, by abstract interpretation of the instructions over the program's
+ * control flow, starting from the data that was loaded with the program.
+ * Loops are made to converge by widening a bound that keeps growing to
+ * the int limit.
+ * <p>
+ * The ranges bound the pointers used by indirect loads and stores, so every
+ * data access can be classified: isAccessSafe(pc) is true when all data
+ * accesses of the instruction at pc are proven to be inside data memory
+ * or on a port that allows them (a read of IN_PORT or STATUS_PORT, a write
+ * of OUT_PORT, as PortIO), which lets a compiled engine drop the bounds
+ * checks for that instruction.
+ * The accesses that are not proven are listed by report(), which can be
+ * used as a lint for the program.
+ */
+public class RangeAnalysis {
+	private static final long MIN = Integer.MIN_VALUE;
+	private static final long MAX = Integer.MAX_VALUE;
+	// data indexes below LIMIT are data memory or one of the ports of PortIO
+	private static final int LIMIT = Memory.STATUS_PORT + 1;
+	private static final int ACC = LIMIT;
+	private static final int SLOTS = LIMIT + 1;
+	// joins at one instruction before growing bounds are widened
+	private static final int WIDEN_AFTER = 3;
+
+	private static final int NOT = Instruction.opcodes.get("NOT");
+	private static final int HALT = Instruction.opcodes.get("HALT");
+	private static final int LOD = Instruction.opcodes.get("LOD");
+	private static final int STO = Instruction.opcodes.get("STO");
+	private static final int ADD = Instruction.opcodes.get("ADD");
+	private static final int SUB = Instruction.opcodes.get("SUB");
+	private static final int MUL = Instruction.opcodes.get("MUL");
+	private static final int DIV = Instruction.opcodes.get("DIV");
+	private static final int AND = Instruction.opcodes.get("AND");
+	private static final int JUMP = Instruction.opcodes.get("JUMP");
+	private static final int JMPZ = Instruction.opcodes.get("JMPZ");
+	private static final int CMPL = Instruction.opcodes.get("CMPL");
+	private static final int CMPZ = Instruction.opcodes.get("CMPZ");
+	private static final int MOVB = Instruction.opcodes.get("MOVB");
+	private static final int FILL = Instruction.opcodes.get("FILL");
+	private static final int SWAP = Instruction.opcodes.get("SWAP");
+	private static final int FADD = Instruction.opcodes.get("FADD");
+	private static final int CAS = Instruction.opcodes.get("CAS");
+
+	private MachineModel model;
+	private int size;
+	// states[pc] holds lo at 2*i and hi at 2*i+1 for slot i, the
+	// accumulator is slot ACC. A null state means pc is not reachable.
+	private long[][] states;
+	private int[] joins;
+	// the widest range of data indexes each instruction was seen to access
+	private long[] accessLo;
+	private long[] accessHi;
+	private boolean[] accesses;
+	// true if one of the accesses of the instruction may fault
+	private boolean[] faults;
+	// scratch state for the instruction being interpreted
+	private long[] out = new long[2*SLOTS];
+
+	private RangeAnalysis(MachineModel model) {
+		this.model = model;
+		size = model.getProgramSize() + 1;
+		states = new long[size][];
+		joins = new int[size];
+		accessLo = new long[size];
+		accessHi = new long[size];
+		accesses = new boolean[size];
+		faults = new boolean[size];
+	}
+
+	/**
+	 * Runs the analysis on the program loaded in the model. The model
+	 * is not changed.
+	 * @param model the machine with a loaded program
+	 * @return the results of the analysis
+	 */
+	public static RangeAnalysis analyze(MachineModel model) {
+		RangeAnalysis analysis = new RangeAnalysis(model);
+		analysis.run();
+		return analysis;
+	}
+
+	/**
+	 * @param pc a code index
+	 * @return true if pc is reachable and every data access made by the
+	 * instruction at pc is proven to be inside data memory or on a port
+	 * that allows it
+	 */
+	public boolean isAccessSafe(int pc) {
+		if (pc < 0 || pc >= size || states[pc] == null)
+			return false;
+		return !faults[pc];
+	}
+
+	/**
+	 * @return one element per code index that is true where isAccessSafe is true
+	 */
+	public boolean[] getSafeAccesses() {
+		boolean[] retVal = new boolean[size];
+		for (int pc = 0; pc < size; pc++)
+			retVal[pc] = isAccessSafe(pc);
+		return retVal;
+	}
+
+	/**
+	 * @param pc a code index
+	 * @return the range {lo, hi} of the accumulator before the instruction
+	 * at pc is executed, or null if pc is not reachable
+	 */
+	public long[] getAccumRange(int pc) {
+		return getRange(pc, ACC);
+	}
+
+	/**
+	 * @param pc a code index
+	 * @param index a data memory index
+	 * @return the range {lo, hi} of the data word before the instruction
+	 * at pc is executed, or null if pc is not reachable
+	 */
+	public long[] getDataRange(int pc, int index) {
+		return getRange(pc, index);
+	}
+
+	private long[] getRange(int pc, int slot) {
+		if (pc < 0 || pc >= size || states[pc] == null)
+			return null;
+		return new long[] {states[pc][2*slot], states[pc][2*slot+1]};
+	}
+
+	/**
+	 * Lists the reachable instructions whose data accesses may fault
+	 * @return one line per instruction, empty if every access is safe
+	 */
+	public String report() {
+		StringBuilder buff = new StringBuilder();
+		for (int pc = 0; pc < size; pc++) {
+			if (states[pc] != null && !isAccessSafe(pc)) {
+				buff.append("\nWarning at code index " + pc + ": "
+						+ model.getCode(pc).getText() + " may access data ["
+						+ accessLo[pc] + ", " + accessHi[pc] + "]");
+			}
+		}
+		return buff.toString();
+	}
+
+	private void run() {
+		if (size == 0 || model.getCode(0) == null)
+			return;
+		long[] init = new long[2*SLOTS];
+		for (int i = 0; i < Memory.DATA_SIZE; i++) {
+			init[2*i] = model.getData(i);
+			init[2*i+1] = model.getData(i);
+		}
+		for (int i = Memory.DATA_SIZE; i < LIMIT; i++) {
+			// nothing is known about the words read from a port
+			init[2*i] = MIN;
+			init[2*i+1] = MAX;
+		}
+		init[2*ACC] = model.getAccum();
+		init[2*ACC+1] = model.getAccum();
+		states[0] = init;
+		Deque<Integer> work = new ArrayDeque<>();
+		boolean[] queued = new boolean[size];
+		work.add(0);
+		queued[0] = true;
+		while (!work.isEmpty()) {
+			int pc = work.poll();
+			queued[pc] = false;
+			Instruction instr = model.getCode(pc);
+			if (instr == null)
+				continue;
+			int op = (instr.opcode & 0xFF)/8;
+			int flags = instr.opcode & 6;
+			System.arraycopy(states[pc], 0, out, 0, out.length);
+			if (!interpret(pc, instr, op, flags))
+				continue;
+			int[] succ = ProgramVerifier.successors(pc, instr);
+			if (succ == null) {
+				// computed jump: every instruction is a possible target
+				succ = new int[size];
+				for (int i = 0; i < size; i++)
+					succ[i] = i;
+			}
+			for (int next : succ) {
+				if (next < 0 || next >= size)
+					continue;
+				long[] state = out;
+				if (op == JMPZ)
+					state = refineJMPZ(pc, instr, flags, next);
+				if (state != null && merge(next, state) && !queued[next]) {
+					queued[next] = true;
+					work.add(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the instruction to the scratch state. Returns false if the
+	 * instruction has no successors that need a state.
+	 */
+	private boolean interpret(int pc, Instruction instr, int op, int flags) {
+		int arg = instr.arg;
+		if (op == NOT) {
+			if (out[2*ACC] == 0 && out[2*ACC+1] == 0)
+				set(ACC, 1, 1);
+			else if (out[2*ACC] > 0 || out[2*ACC+1] < 0)
+				set(ACC, 0, 0);
+			else
+				set(ACC, 0, 1);
+		} else if (op == HALT) {
+			return false;
+		} else if (op == LOD || op == ADD || op == SUB || op == MUL || op == DIV) {
+			long lo, hi;
+			if (flags == 2) {
+				lo = arg;
+				hi = arg;
+			} else if (flags == 0) {
+				if (!read(pc, arg))
+					return false;
+				lo = out[2*arg];
+				hi = out[2*arg+1];
+			} else {
+				long[] range = readIndirect(pc, arg);
+				if (range == null)
+					return false;
+				lo = range[0];
+				hi = range[1];
+			}
+			if (op == LOD)
+				set(ACC, lo, hi);
+			else
+				arithmetic(op, lo, hi);
+		} else if (op == STO) {
+			if (flags == 0) {
+				if (!write(pc, arg, out[2*ACC], out[2*ACC+1], true))
+					return false;
+			} else {
+				if (!read(pc, arg))
+					return false;
+				long pLo = out[2*arg];
+				long pHi = out[2*arg+1];
+				record(pc, pLo, pHi, true);
+				pLo = Math.max(pLo, 0);
+				pHi = Math.min(pHi, LIMIT - 1);
+				if (pLo > pHi)
+					return false;
+				// the store only completes when the pointer is in range
+				set(arg, pLo, pHi);
+				long aLo = out[2*ACC];
+				long aHi = out[2*ACC+1];
+				for (long p = pLo; p <= pHi; p++)
+					write(pc, (int)p, aLo, aHi, pLo == pHi);
+			}
+		} else if (op == AND) {
+			long lo = arg, hi = arg;
+			boolean accZero = out[2*ACC] == 0 && out[2*ACC+1] == 0;
+			boolean accNonZero = out[2*ACC] > 0 || out[2*ACC+1] < 0;
+			// the word is only read when the accumulator is not 0
+			if (flags == 0 && !accZero) {
+				if (!read(pc, arg)) {
+					if (accNonZero)
+						return false;
+					set(ACC, 0, 0);
+					return true;
+				}
+				lo = out[2*arg];
+				hi = out[2*arg+1];
+			}
+			boolean argZero = lo == 0 && hi == 0;
+			boolean argNonZero = lo > 0 || hi < 0;
+			if (accZero || argZero)
+				set(ACC, 0, 0);
+			else if (accNonZero && argNonZero)
+				set(ACC, 1, 1);
+			else
+				set(ACC, 0, 1);
+		} else if (op == CMPL || op == CMPZ) {
+			if (!read(pc, arg))
+				return false;
+			long lo = out[2*arg];
+			long hi = out[2*arg+1];
+			if (op == CMPL)
+				set(ACC, hi < 0 ? 1 : 0, lo < 0 ? 1 : 0);
+			else if (lo == 0 && hi == 0)
+				set(ACC, 1, 1);
+			else
+				set(ACC, 0, (lo <= 0 && hi >= 0) ? 1 : 0);
+		} else if (op == MOVB || op == FILL || op == SWAP) {
+			if (!read(pc, arg) || !read(pc, arg+1))
+				return false;
+			long pLo = out[2*arg], pHi = out[2*arg+1];
+			long qLo = out[2*(arg+1)], qHi = out[2*(arg+1)+1];
+			long[] values;
+			if (op == MOVB) {
+				// copy accum words from index p to index q
+				long cLo = out[2*ACC], cHi = out[2*ACC+1];
+				long last = recordCount(pc, cLo, cHi);
+				recordBlock(pc, pLo, pHi + last);
+				if (cHi <= 0) {
+					recordBlock(pc, qLo, qHi);
+					return cHi == 0;
+				}
+				values = join(pLo, pHi + last);
+				clobber(pc, qLo, qHi + last, values);
+			} else if (op == FILL) {
+				// fill q words from index p with accum
+				long last = recordCount(pc, qLo, qHi);
+				if (qHi <= 0) {
+					recordBlock(pc, pLo, pHi);
+					return qHi == 0;
+				}
+				clobber(pc, pLo, pHi + last, new long[] {out[2*ACC], out[2*ACC+1]});
+			} else {
+				values = join(Math.min(pLo, qLo), Math.max(pHi, qHi));
+				clobber(pc, pLo, pHi, values);
+				clobber(pc, qLo, qHi, values);
+			}
+		} else if (op == FADD || op == CAS) {
+			if (!read(pc, arg) || (op == CAS && !read(pc, arg+1)))
+				return false;
+			long pLo = arg, pHi = arg;
+			if (flags == 4) {
+				pLo = out[2*arg];
+				pHi = out[2*arg+1];
+			}
+			if (Math.max(pLo, 0) > Math.min(pHi, Memory.DATA_SIZE - 1)) {
+				recordBlock(pc, pLo, pHi);
+				return false;
+			}
+			// the word is shared with the other cores, so its value is unknown
+			long[] old = join(pLo, pHi);
+			clobber(pc, pLo, pHi, new long[] {MIN, MAX});
+			if (op == FADD)
+				set(ACC, old[0], old[1]);
+			else
+				set(ACC, 0, 1);
+		} else if ((op == JUMP || op == JMPZ) && flags >= 4) {
+			if (!read(pc, arg))
+				return false;
+		}
+		return true;
+	}
+
+	private void arithmetic(int op, long lo, long hi) {
+		long aLo = out[2*ACC];
+		long aHi = out[2*ACC+1];
+		long rLo, rHi;
+		if (op == ADD) {
+			rLo = aLo + lo;
+			rHi = aHi + hi;
+		} else if (op == SUB) {
+			rLo = aLo - hi;
+			rHi = aHi - lo;
+		} else if (op == MUL) {
+			long a = aLo*lo, b = aLo*hi, c = aHi*lo, d = aHi*hi;
+			rLo = Math.min(Math.min(a, b), Math.min(c, d));
+			rHi = Math.max(Math.max(a, b), Math.max(c, d));
+		} else if (lo <= 0 && hi >= 0) {
+			// the divisor may be 0 or +/-1, so only the magnitude is bounded
+			long m = Math.max(Math.abs(aLo), Math.abs(aHi));
+			rLo = -m;
+			rHi = m;
+		} else {
+			long a = aLo/lo, b = aLo/hi, c = aHi/lo, d = aHi/hi;
+			rLo = Math.min(Math.min(a, b), Math.min(c, d));
+			rHi = Math.max(Math.max(a, b), Math.max(c, d));
+		}
+		if (rLo < MIN || rHi > MAX) {
+			// int arithmetic wraps around
+			rLo = MIN;
+			rHi = MAX;
+		}
+		set(ACC, rLo, rHi);
+	}
+
+	private long[] readIndirect(int pc, int arg) {
+		if (!read(pc, arg))
+			return null;
+		long pLo = out[2*arg];
+		long pHi = out[2*arg+1];
+		record(pc, pLo, pHi, false);
+		pLo = Math.max(pLo, 0);
+		pHi = Math.min(pHi, LIMIT - 1);
+		if (pLo > pHi)
+			return null;
+		long lo = MAX, hi = MIN;
+		for (long p = pLo; p <= pHi; p++) {
+			lo = Math.min(lo, out[2*(int)p]);
+			hi = Math.max(hi, out[2*(int)p+1]);
+		}
+		// the load only completes when the pointer is in range
+		set(arg, pLo, pHi);
+		return new long[] {lo, hi};
+	}
+
+	/**
+	 * Returns the join of the ranges of the words from lo to hi that
+	 * are in data memory.
+	 */
+	private long[] join(long lo, long hi) {
+		long vLo = MAX, vHi = MIN;
+		for (long i = Math.max(lo, 0); i <= Math.min(hi, Memory.DATA_SIZE - 1); i++) {
+			vLo = Math.min(vLo, out[2*(int)i]);
+			vHi = Math.max(vHi, out[2*(int)i+1]);
+		}
+		return new long[] {vLo, vHi};
+	}
+
+	/**
+	 * Records that the instruction may write any word from lo to hi and
+	 * joins the range of values into the words that are in data memory.
+	 */
+	private void clobber(int pc, long lo, long hi, long[] values) {
+		recordBlock(pc, lo, hi);
+		for (long i = Math.max(lo, 0); i <= Math.min(hi, Memory.DATA_SIZE - 1); i++)
+			write(pc, (int)i, values[0], values[1], false);
+	}
+
+	/**
+	 * Records a read of a word, returns false if the read always faults
+	 */
+	private boolean read(int pc, int index) {
+		return record(pc, index, index, false);
+	}
+
+	/**
+	 * Records a write of a word and joins the range of values into it,
+	 * returns false if the write always faults
+	 */
+	private boolean write(int pc, int index, long lo, long hi, boolean strong) {
+		if (!record(pc, index, index, true))
+			return false;
+		if (strong)
+			set(index, lo, hi);
+		else
+			set(index, Math.min(lo, out[2*index]), Math.max(hi, out[2*index+1]));
+		return true;
+	}
+
+	/**
+	 * Records the words accessed by a block or atomic instruction, which
+	 * works on the array of data memory and cannot reach the ports.
+	 */
+	private void recordBlock(int pc, long lo, long hi) {
+		record(pc, lo, hi >= Memory.DATA_SIZE ? MAX : hi, true);
+	}
+
+	/**
+	 * Records that a block instruction faults when its count may be
+	 * negative and returns the offset of the last word of the block. The
+	 * pointers are checked even when no word is copied, so the offset is
+	 * at least 0.
+	 */
+	private long recordCount(int pc, long lo, long hi) {
+		faults[pc] |= lo < 0;
+		return Math.max(hi, 1) - 1;
+	}
+
+	/**
+	 * Records that the instruction may read or write any word from lo to
+	 * hi. Returns true if the access cannot fault.
+	 */
+	private boolean record(int pc, long lo, long hi, boolean write) {
+		boolean safe = lo >= 0 && (hi < Memory.DATA_SIZE
+				|| (write ? lo == Memory.OUT_PORT && hi == Memory.OUT_PORT
+						: hi == Memory.IN_PORT || (lo == Memory.STATUS_PORT && hi == Memory.STATUS_PORT)));
+		faults[pc] |= !safe;
+		if (!accesses[pc]) {
+			accesses[pc] = true;
+			accessLo[pc] = lo;
+			accessHi[pc] = hi;
+		} else {
+			accessLo[pc] = Math.min(accessLo[pc], lo);
+			accessHi[pc] = Math.max(accessHi[pc], hi);
+		}
+		return safe;
+	}
+
+	private void set(int slot, long lo, long hi) {
+		if (slot >= Memory.DATA_SIZE && slot < LIMIT)
+			return; // a port
+		out[2*slot] = lo;
+		out[2*slot+1] = hi;
+	}
+
+	/**
+	 * The accumulator is 0 on the taken branch of JMPZ and not 0 on the
+	 * other one. Returns null when the branch cannot be taken.
+	 */
+	private long[] refineJMPZ(int pc, Instruction instr, int flags, int next) {
+		if (flags >= 4)
+			return out;
+		int target = flags == 0 ? pc + instr.arg : instr.arg;
+		if (target == pc+1)
+			return out;
+		long lo = out[2*ACC];
+		long hi = out[2*ACC+1];
+		long[] state = out.clone();
+		if (next == target) {
+			if (lo > 0 || hi < 0)
+				return null;
+			state[2*ACC] = 0;
+			state[2*ACC+1] = 0;
+		} else {
+			if (lo == 0 && hi == 0)
+				return null;
+			if (lo == 0)
+				state[2*ACC] = 1;
+			if (hi == 0)
+				state[2*ACC+1] = -1;
+		}
+		return state;
+	}
+
+	/**
+	 * Joins the state into the state of pc, widening after WIDEN_AFTER
+	 * joins. Returns true if the state of pc changed.
+	 */
+	private boolean merge(int pc, long[] state) {
+		if (states[pc] == null) {
+			states[pc] = state.clone();
+			return true;
+		}
+		long[] old = states[pc];
+		boolean widen = ++joins[pc] > WIDEN_AFTER;
+		boolean changed = false;
+		for (int i = 0; i < old.length; i += 2) {
+			if (state[i] < old[i]) {
+				old[i] = widen ? MIN : state[i];
+				changed = true;
+			}
+			if (state[i+1] > old[i+1]) {
+				old[i+1] = widen ? MAX : state[i+1];
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Enter the name of the file without extension: ");
+		try (Scanner keyboard = new Scanner(System.in)) {
+			String filename = keyboard.nextLine();
+			MachineModel model = new MachineModel(true, () -> {});
+			System.out.println(Loader.load(model, new File(filename + ".pexe")));
+			RangeAnalysis analysis = analyze(model);
+			String report = analysis.report();
+			System.out.println(report.length() == 0 ? "All data accesses are safe" : report);
+			System.out.println(Arrays.toString(analysis.getSafeAccesses()));
+		}
+	}
+}
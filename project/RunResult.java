@@ -0,0 +1,46 @@
+package project;
+
+/**
+ * The outcome of MachineModel.run: the number of steps and cycles of the
+ * run, whether the program halted, and the pc and accumulator at the end
+ */
+public class RunResult {
+	private long steps;
+	private long cycles;
+	private boolean halted;
+	private int pc;
+	private int accum;
+
+	RunResult(long steps, long cycles, boolean halted, int pc, int accum) {
+		this.steps = steps;
+		this.cycles = cycles;
+		this.halted = halted;
+		this.pc = pc;
+		this.accum = accum;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public boolean isHalted() {
+		return halted;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getAccum() {
+		return accum;
+	}
+
+	public String toString() {
+		return "RunResult [steps=" + steps + ", cycles=" + cycles + ", halted=" + halted
+				+ ", pc=" + pc + ", accum=" + accum + "]";
+	}
+}
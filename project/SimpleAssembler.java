@@ -1,83 +1,121 @@
 package project;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * Assembler for sources that are known to be correct, for example after
+ * FullAssembler has checked them. It only reports the lines that cannot be
+ * encoded. An instance is immutable and can be shared by threads.
+ */
 public class SimpleAssembler implements Assembler {
 
-	private boolean readingCode = true;
-	private int noArgCount = 0;
+	private final boolean optimize;
+
+	public SimpleAssembler() {
+		this(false);
+	}
+
+	/**
+	 * @param optimize true to run the PeepholeOptimizer on the code
+	 * before it is written
+	 */
+	public SimpleAssembler(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	@Override
+	public String getConfiguration() {
+		return getClass().getName() + " optimize=" + optimize;
+	}
 	
-	private Instruction makeCode(String[] parts) {
-		if (noArgument.contains(parts[0])) {
-			noArgCount++;
-			int opPart = 8*Instruction.opcodes.get(parts[0]);
-			opPart += Instruction.numOnes(opPart)%2;
-			return new Instruction((byte)opPart,0);
+	/**
+	 * Returns the instruction of a code line, null if the line is not one
+	 */
+	private Instruction makeCode(PasmLexer lexer) {
+		int opcode = lexer.getOpcode(0);
+		if (opcode < 0)
+			return null;
+		if (!InstructionSet.hasArgument(InstructionSet.encode(opcode, 0))) {
+			return new Instruction(InstructionSet.encode(opcode, 0),0);
 		}
 		else {
-			int flags = 0;
-			if (parts[1].charAt(0) == '#') {
-				flags = 2;
-				parts[1] = parts[1].substring(1);
-			}
-			else if (parts[1].charAt(0) == '@') {
-				flags = 4;
-				parts[1] = parts[1].substring(1);
-			}
-			else if (parts[1].charAt(0) == '&') {
-				flags = 6;
-				parts[1] = parts[1].substring(1);
-			}
-			int arg = Integer.parseInt(parts[1],16);
-			int opPart = 8*Instruction.opcodes.get(parts[0]) + flags;
-			opPart += Instruction.numOnes(opPart)%2;
-			return new Instruction((byte)opPart,arg);
+			if (lexer.getTokenCount() < 2 || !lexer.parseHex(1, true))
+				return null;
+			return new Instruction(InstructionSet.encode(opcode, lexer.getFlags(1)),lexer.getValue());
 		}
 		
 	}
 	
-	private DataPair makeData (String[] parts) {
-		return new DataPair(Integer.parseInt(parts[0],16), Integer.parseInt(parts[1],16));
+	/**
+	 * Returns the pair of a data line, null if the line is not one
+	 */
+	private DataPair makeData(PasmLexer lexer) {
+		if (lexer.getTokenCount() < 2 || !lexer.parseHex(0, false))
+			return null;
+		int address = lexer.getValue();
+		if (!lexer.parseHex(1, false))
+			return null;
+		return new DataPair(address, lexer.getValue());
 	}
 	
 	@Override
 	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
-		Map<Boolean, List<String>> lists = null;
-		try (Stream<String> lines = Files.lines(Paths.get(inputFileName))) {
-			lists = lines
-				.filter(line -> line.trim().length() > 0) // << CORRECTION <<
-				.map(line -> line.trim()) // << CORRECTION <<
-				.peek(line -> {if(line.toUpperCase().equals("DATA")) readingCode = false;})
-				.map(line -> line.trim()) // << CORRECTION <<
-				.collect(Collectors.partitioningBy(line -> readingCode));
-//				System.out.println("true List " + lists.get(true)); // these lines can be uncommented 
-//				System.out.println("false List " + lists.get(false)); // for checking the code
+		return assemble(inputFileName, outputFileName, error, null);
+	}
+
+	/**
+	 * Assembles the file as assemble(String, String, StringBuilder) does
+	 * and, if the assembler optimizes, reports the instructions removed.
+	 * The source is assumed to be correct, as checked by FullAssembler;
+	 * only the lines with an unknown mnemonic or a bad hex number are
+	 * reported.
+	 * @param report if not null, receives the report of the optimizer
+	 */
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error,
+			StringBuilder report) {
+		List<Instruction> outputCode = new ArrayList<>();
+		List<DataPair> outputData = new ArrayList<>();
+		try (FileInputStream in = new FileInputStream(new File(inputFileName))) {
+			PasmLexer lexer = new PasmLexer(in.getChannel());
+			boolean readingCode = true;
+			while (lexer.nextLine()) {
+				if (lexer.isBlank())
+					continue;
+				if (lexer.getTokenCount() == 1 && lexer.isData(0))
+					readingCode = false;
+				else if (readingCode) {
+					Instruction instr = makeCode(lexer);
+					if (instr == null) {
+						error.append("\nError on line " + lexer.getLineNumber() + ": illegal instruction");
+						return lexer.getLineNumber();
+					}
+					outputCode.add(instr);
+				} else {
+					DataPair pair = makeData(lexer);
+					if (pair == null) {
+						error.append("\nError on line " + lexer.getLineNumber() + ": illegal data");
+						return lexer.getLineNumber();
+					}
+					outputData.add(pair);
+				}
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			error.append("\nUnexplained IO Exception");
+			return -1;
 		}
-		lists.get(false).remove("DATA");
-		
-		List<Instruction> outputCode = lists.get(true).stream()
-				.map(line -> line.split("\\s+"))
-				.map(this::makeCode) // note how we use an instance method
-				.collect(Collectors.toList());
 		
-		List<DataPair> outputData = lists.get(false).stream()
-				.map(line -> line.split("\\s+"))
-				.map(this::makeData) // note how we use an instance method
-				.collect(Collectors.toList());
+		if (optimize)
+			outputCode = PeepholeOptimizer.optimize(outputCode, report);
+		int noArgCount = (int) outputCode.stream().filter(Instruction::noArgument).count();
 		
 		int bytesNeeded = noArgCount + 5*(outputCode.size()-noArgCount)
 				+1+8*(outputData.size());
@@ -0,0 +1,167 @@
+package project;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Assembler for correct sources, as SimpleAssembler, that writes each line
+ * as soon as it is encoded instead of keeping the program. The source is
+ * read from a channel by a PasmLexer and the encodings go through a direct
+ * buffer of BUFFER_SIZE bytes to any channel, so the memory used does not
+ * depend on the size of the program (only a line longer than the buffer
+ * of the lexer makes it grow). The code is written as it is read, the byte
+ * -1 at the DATA line, or at the end if there is none, and the data pairs
+ * after it, which is the order of the pexe file.
+ * <p>
+ * The lines that cannot be encoded are reported with the messages of
+ * SimpleAssembler. Since the output is written before the end of the
+ * source is known, after an error the output holds the lines before it
+ * and must be discarded; assemble(String, String, StringBuilder) deletes
+ * the output file. An instance has no state and can be shared by threads.
+ */
+public class StreamingAssembler implements Assembler {
+	public static final int BUFFER_SIZE = 8192;
+
+	@Override
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+		if (error == null)
+			throw new IllegalArgumentException("Coding error: the error buffer is null");
+		Path output = Paths.get(outputFileName);
+		int retVal;
+		try (FileChannel in = FileChannel.open(Paths.get(inputFileName));
+				FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			retVal = assemble(in, out, error);
+		} catch (IOException e) {
+			error.append("\nUnexplained IO Exception");
+			retVal = -1;
+		}
+		if (retVal != 0) {
+			try {
+				Files.deleteIfExists(output);
+			} catch (IOException e) {
+				// the value returned already reports the error
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Assembles a source read from a stream, for example System.in
+	 * @see #assemble(ReadableByteChannel, WritableByteChannel, StringBuilder)
+	 */
+	public int assemble(InputStream in, WritableByteChannel out, StringBuilder error) throws IOException {
+		return assemble(Channels.newChannel(in), out, error);
+	}
+
+	/**
+	 * Assembles a source into a pexe program. The channels are not closed.
+	 * @param in the channel of the source
+	 * @param out the channel of the program
+	 * @param error receives the message of a line that cannot be encoded
+	 * @return 0 if the whole program was written, otherwise the number of
+	 * the line that cannot be encoded
+	 * @throws IOException if a channel cannot be read or written
+	 */
+	public int assemble(ReadableByteChannel in, WritableByteChannel out, StringBuilder error)
+			throws IOException {
+		PasmLexer lexer = new PasmLexer(in);
+		ByteBuffer buff = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		boolean readingCode = true;
+		while (lexer.nextLine()) {
+			if (lexer.isBlank())
+				continue;
+			// a pair is the longest encoding
+			if (buff.remaining() < 8)
+				flush(buff, out);
+			if (lexer.getTokenCount() == 1 && lexer.isData(0)) {
+				// SimpleAssembler ignores the DATA lines after the first one
+				if (readingCode)
+					buff.put((byte) -1);
+				readingCode = false;
+			} else if (readingCode) {
+				if (!putCode(lexer, buff)) {
+					error.append("\nError on line " + lexer.getLineNumber() + ": illegal instruction");
+					return lexer.getLineNumber();
+				}
+			} else if (!putData(lexer, buff)) {
+				error.append("\nError on line " + lexer.getLineNumber() + ": illegal data");
+				return lexer.getLineNumber();
+			}
+		}
+		if (readingCode) {
+			if (!buff.hasRemaining())
+				flush(buff, out);
+			buff.put((byte) -1);
+		}
+		flush(buff, out);
+		return 0;
+	}
+
+	/**
+	 * Writes the encoding of a code line, returns false if the line is not one
+	 */
+	private static boolean putCode(PasmLexer lexer, ByteBuffer buff) {
+		int opcode = lexer.getOpcode(0);
+		if (opcode < 0)
+			return false;
+		if (!InstructionSet.hasArgument(InstructionSet.encode(opcode, 0))) {
+			buff.put(InstructionSet.encode(opcode, 0));
+			return true;
+		}
+		if (lexer.getTokenCount() < 2 || !lexer.parseHex(1, true))
+			return false;
+		buff.put(InstructionSet.encode(opcode, lexer.getFlags(1)));
+		buff.putInt(lexer.getValue());
+		return true;
+	}
+
+	/**
+	 * Writes the encoding of a data line, returns false if the line is not one
+	 */
+	private static boolean putData(PasmLexer lexer, ByteBuffer buff) {
+		if (lexer.getTokenCount() < 2 || !lexer.parseHex(0, false))
+			return false;
+		int address = lexer.getValue();
+		if (!lexer.parseHex(1, false))
+			return false;
+		buff.putInt(address);
+		buff.putInt(lexer.getValue());
+		return true;
+	}
+
+	private static void flush(ByteBuffer buff, WritableByteChannel out) throws IOException {
+		buff.flip();
+		while (buff.hasRemaining())
+			out.write(buff);
+		buff.clear();
+	}
+
+	/**
+	 * Assembles the source on the standard input into the standard output,
+	 * so it can be used in a pipe; the error is printed on the standard error
+	 */
+	public static void main(String[] args) {
+		StringBuilder error = new StringBuilder();
+		try {
+			int i = new StreamingAssembler().assemble(System.in, Channels.newChannel(System.out), error);
+			System.out.flush();
+			if (i != 0) {
+				System.err.println(error.substring(1));
+				System.exit(1);
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package project;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.stream.LongStream;
+
+/**
+ * Searches for the shortest sequence of instructions equivalent to a
+ * straight-line fragment. The fragment may use NOP, NOT, LOD, STO, ADD,
+ * SUB, MUL, DIV, AND, CMPL and CMPZ with direct accesses to data memory.
+ * The candidates are every sequence, shorter than the fragment and at
+ * most MAX_LENGTH long, of the legal instructions of those opcodes (NOP
+ * excepted) with every addressing mode, whose direct and indirect
+ * arguments are the cells the fragment uses and whose immediate arguments
+ * are the constants of the fragment, 0, 1 and -1.
+ * <p>
+ * The candidates of each length are enumerated in parallel. A candidate
+ * is first run on TESTS random machine states and must end in the same
+ * state as the fragment on all of them: the same accumulator (unless it is
+ * not live after the fragment), the same data memory and the same fault.
+ * A candidate that passes is verified on every state of a bounded domain,
+ * where the accumulator and the cells the fragment uses take every value
+ * among -1, 0, 1, the cells and the constants and the other cells are 0.
+ * The first verified candidate of the smallest length is the result.
+ * <p>
+ * The instructions are run by a copy of the semantics of
+ * MachineModel.ACTION, in which a division by 0 and an access outside
+ * data memory (the ports included) are faults that stop the sequence.
+ */
+public class Superoptimizer {
+	public static final int MAX_LENGTH = 3;
+	public static final int TESTS = 64;
+	// the largest bounded domain that is verified
+	public static final int MAX_STATES = 1 << 20;
+	private static final int NOP = Instruction.opcodes.get("NOP");
+	private static final int NOT = Instruction.opcodes.get("NOT");
+	private static final int LOD = Instruction.opcodes.get("LOD");
+	private static final int STO = Instruction.opcodes.get("STO");
+	private static final int ADD = Instruction.opcodes.get("ADD");
+	private static final int SUB = Instruction.opcodes.get("SUB");
+	private static final int MUL = Instruction.opcodes.get("MUL");
+	private static final int DIV = Instruction.opcodes.get("DIV");
+	private static final int AND = Instruction.opcodes.get("AND");
+	private static final int CMPL = Instruction.opcodes.get("CMPL");
+	private static final int CMPZ = Instruction.opcodes.get("CMPZ");
+	private static final int[] SEARCHED = {NOT, LOD, STO, ADD, SUB, MUL, DIV, AND, CMPL, CMPZ};
+	// the fault of a run
+	private static final int NONE = 0;
+	private static final int DIVIDE_BY_ZERO = 1;
+	private static final int OUT_OF_RANGE = 2;
+
+	private Instruction[] target;
+	private boolean accumLive;
+	private int[] cells;
+	private int[] domain;
+	private Instruction[] alphabet;
+	private Run[] tests = new Run[TESTS];
+	private Run[] expected = new Run[TESTS];
+	// two runs per thread, for the fragment and for a candidate
+	private ThreadLocal<Run[]> scratch = ThreadLocal.withInitial(() -> new Run[] {new Run(), new Run()});
+
+	/**
+	 * A machine state: the accumulator, the data memory and the fault
+	 * that stopped the run, if any
+	 */
+	private static class Run {
+		int accum;
+		int fault;
+		int[] data = new int[Memory.DATA_SIZE];
+
+		void copy(Run from) {
+			accum = from.accum;
+			fault = NONE;
+			System.arraycopy(from.data, 0, data, 0, data.length);
+		}
+
+		boolean sameAs(Run other, boolean accumLive) {
+			return fault == other.fault && (!accumLive || accum == other.accum)
+					&& Arrays.equals(data, other.data);
+		}
+
+		int load(int index) {
+			if (index < 0 || index >= Memory.DATA_SIZE) {
+				fault = OUT_OF_RANGE;
+				return 0;
+			}
+			return data[index];
+		}
+
+		void execute(Instruction[] code) {
+			for (Instruction instr : code) {
+				step(instr);
+				if (fault != NONE)
+					return;
+			}
+		}
+
+		private void step(Instruction instr) {
+			int op = InstructionSet.HANDLER[instr.opcode & 0xFF];
+			int flags = instr.opcode & 6;
+			if (op == NOP)
+				return;
+			if (op == NOT) {
+				accum = accum == 0 ? 1 : 0;
+				return;
+			}
+			if (op == STO) {
+				int index = flags == 0 ? instr.arg : load(instr.arg);
+				load(index); // checks the range
+				if (fault == NONE)
+					data[index] = accum;
+				return;
+			}
+			int value = flags == 2 ? instr.arg : load(instr.arg);
+			if (flags == 4 && fault == NONE)
+				value = load(value);
+			if (fault != NONE)
+				return;
+			if (op == LOD)
+				accum = value;
+			else if (op == ADD)
+				accum += value;
+			else if (op == SUB)
+				accum -= value;
+			else if (op == MUL)
+				accum *= value;
+			else if (op == DIV) {
+				if (value == 0)
+					fault = DIVIDE_BY_ZERO;
+				else
+					accum /= value;
+			} else if (op == AND)
+				accum = accum != 0 && value != 0 ? 1 : 0;
+			else if (op == CMPL)
+				accum = value < 0 ? 1 : 0;
+			else if (op == CMPZ)
+				accum = value == 0 ? 1 : 0;
+		}
+	}
+
+	private Superoptimizer(Instruction[] target, boolean accumLive, long seed) {
+		this.target = target;
+		this.accumLive = accumLive;
+		TreeSet<Integer> cellSet = new TreeSet<>();
+		TreeSet<Integer> constantSet = new TreeSet<>(Arrays.asList(-1, 0, 1));
+		for (Instruction instr : target) {
+			if (!InstructionSet.hasArgument(instr.opcode))
+				continue;
+			if ((instr.opcode & 6) == 2)
+				constantSet.add(instr.arg);
+			else
+				cellSet.add(instr.arg);
+		}
+		cells = cellSet.stream().mapToInt(Integer::intValue).toArray();
+		TreeSet<Integer> domainSet = new TreeSet<>(constantSet);
+		domainSet.addAll(cellSet);
+		domain = domainSet.stream().mapToInt(Integer::intValue).toArray();
+		List<Instruction> letters = new ArrayList<>();
+		for (int op : SEARCHED) {
+			for (int flags = 0; flags <= 4; flags += 2) {
+				byte b = InstructionSet.encode(op, flags);
+				if (!InstructionSet.isLegal(b))
+					continue;
+				if (!InstructionSet.hasArgument(b))
+					letters.add(new Instruction(b, 0));
+				else if (flags == 2)
+					for (int c : constantSet)
+						letters.add(new Instruction(b, c));
+				else
+					for (int c : cells)
+						letters.add(new Instruction(b, c));
+			}
+		}
+		alphabet = letters.toArray(new Instruction[0]);
+		Random random = new Random(seed);
+		for (int t = 0; t < TESTS; t++) {
+			tests[t] = new Run();
+			tests[t].accum = draw(random);
+			for (int i = 0; i < Memory.DATA_SIZE; i++)
+				tests[t].data[i] = draw(random);
+			expected[t] = new Run();
+			expected[t].copy(tests[t]);
+			expected[t].execute(target);
+		}
+	}
+
+	/**
+	 * Returns a cell, a constant, a small value or any int, so that the
+	 * pointers of indirect accesses often point to the cells
+	 */
+	private int draw(Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return domain[random.nextInt(domain.length)];
+		case 1:
+			return random.nextInt(5) - 2;
+		case 2:
+			return cells.length == 0 ? 0 : cells[random.nextInt(cells.length)];
+		default:
+			return random.nextInt();
+		}
+	}
+
+	/**
+	 * Searches for a shorter equivalent of a fragment
+	 * @param fragment the straight-line fragment
+	 * @param accumLive false if the accumulator is not read after the
+	 * fragment before it is written
+	 * @param seed the seed of the random states
+	 * @param report if not null, receives the number of candidates tested
+	 * or the reason why the fragment was not searched
+	 * @return the shortest equivalent sequence, null if none is found
+	 */
+	public static List<Instruction> optimize(List<Instruction> fragment, boolean accumLive, long seed,
+			StringBuilder report) {
+		for (Instruction instr : fragment) {
+			if (!isEligible(instr)) {
+				if (report != null)
+					report.append("\nSuperoptimizer: " + instr.getText() + " cannot be searched");
+				return null;
+			}
+		}
+		Superoptimizer optimizer = new Superoptimizer(fragment.toArray(new Instruction[0]), accumLive, seed);
+		long tested = 0;
+		for (int length = 0; length < fragment.size() && length <= MAX_LENGTH; length++) {
+			long count = 1;
+			for (int i = 0; i < length; i++)
+				count *= optimizer.alphabet.length;
+			final int len = length;
+			long found = LongStream.range(0, count).parallel()
+					.filter(k -> optimizer.passesTests(optimizer.decode(k, len)))
+					.filter(k -> optimizer.verify(optimizer.decode(k, len)))
+					.findFirst().orElse(-1);
+			tested += count;
+			if (found >= 0) {
+				if (report != null)
+					report.append("\nSuperoptimizer: " + tested + " candidates, " + fragment.size()
+							+ " instructions replaced by " + length);
+				return Arrays.asList(optimizer.decode(found, length));
+			}
+		}
+		if (report != null)
+			report.append("\nSuperoptimizer: " + tested + " candidates, no shorter sequence");
+		return null;
+	}
+
+	private static boolean isEligible(Instruction instr) {
+		byte b = instr.opcode;
+		int op = InstructionSet.HANDLER[b & 0xFF];
+		if (!InstructionSet.isLegal(b) || (op != NOP && Arrays.stream(SEARCHED).noneMatch(x -> x == op)))
+			return false;
+		return !InstructionSet.hasArgument(b) || (b & 6) == 2
+				|| (instr.arg >= 0 && instr.arg < Memory.DATA_SIZE);
+	}
+
+	private Instruction[] decode(long k, int length) {
+		Instruction[] retVal = new Instruction[length];
+		for (int i = 0; i < length; i++) {
+			retVal[i] = alphabet[(int) (k % alphabet.length)];
+			k /= alphabet.length;
+		}
+		return retVal;
+	}
+
+	private boolean passesTests(Instruction[] candidate) {
+		Run run = scratch.get()[1];
+		for (int t = 0; t < TESTS; t++) {
+			run.copy(tests[t]);
+			run.execute(candidate);
+			if (!run.sameAs(expected[t], accumLive))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the fragment and the candidate on every state of the bounded
+	 * domain and returns false if they differ on one, or if the domain
+	 * has more than MAX_STATES states
+	 */
+	private boolean verify(Instruction[] candidate) {
+		int vars = cells.length + 1;
+		long states = 1;
+		for (int i = 0; i < vars; i++) {
+			states *= domain.length;
+			if (states > MAX_STATES)
+				return false;
+		}
+		Run[] runs = scratch.get();
+		Run initial = new Run();
+		for (long s = 0; s < states; s++) {
+			long k = s;
+			initial.accum = domain[(int) (k % domain.length)];
+			k /= domain.length;
+			for (int c : cells) {
+				initial.data[c] = domain[(int) (k % domain.length)];
+				k /= domain.length;
+			}
+			runs[0].copy(initial);
+			runs[0].execute(target);
+			runs[1].copy(initial);
+			runs[1].execute(candidate);
+			if (!runs[1].sameAs(runs[0], accumLive))
+				return false;
+		}
+		return true;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Enter the name of the file without extension: ");
+		try (Scanner keyboard = new Scanner(System.in)) {
+			String filename = keyboard.nextLine();
+			MachineModel model = new MachineModel(true, () -> {});
+			System.out.println(Loader.load(model, new File(filename + ".pexe")));
+			ControlFlowGraph cfg = model.getControlFlowGraph();
+			for (int b = 0; b < cfg.getBlockCount(); b++) {
+				int pc = cfg.getBlockStart(b);
+				while (pc < cfg.getBlockEnd(b)) {
+					int found = 0;
+					for (int length = MAX_LENGTH + 1; length >= 2 && found == 0; length--) {
+						if (pc + length > cfg.getBlockEnd(b))
+							continue;
+						List<Instruction> fragment = Arrays.asList(model.getCode(pc, pc + length));
+						// the accumulator may be read after the fragment
+						List<Instruction> shorter = optimize(fragment, true, pc, null);
+						if (shorter != null) {
+							StringBuilder buff = new StringBuilder(pc + ":");
+							for (Instruction instr : fragment)
+								buff.append(" " + instr.getText() + ";");
+							buff.append(" ->");
+							for (Instruction instr : shorter)
+								buff.append(" " + instr.getText() + ";");
+							System.out.println(buff);
+							found = length;
+						}
+					}
+					pc += Math.max(found, 1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package project;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The files used by the tests, made in a TemporaryFolder rule that deletes
+ * them after each test
+ */
+final class TestFixtures {
+	private TestFixtures() {
+	}
+
+	/**
+	 * Writes a pasm source
+	 */
+	static File pasm(TemporaryFolder temp, String... lines) throws IOException {
+		File file = temp.newFile();
+		Files.write(file.toPath(), Arrays.asList(lines));
+		return file;
+	}
+
+	/**
+	 * Writes a pexe program
+	 * @param data the data pairs, address then value
+	 */
+	static File pexe(TemporaryFolder temp, Instruction[] code, int... data) throws IOException {
+		File file = temp.newFile();
+		try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(file))) {
+			for (Instruction instr : code) {
+				stream.writeByte(instr.opcode);
+				if (InstructionSet.hasArgument(instr.opcode))
+					stream.writeInt(instr.arg);
+			}
+			stream.writeByte(-1);
+			for (int word : data)
+				stream.writeInt(word);
+		}
+		return file;
+	}
+
+	/**
+	 * Returns a machine that runs without a GUI and with the program loaded
+	 */
+	static MachineModel load(File program) {
+		MachineModel model = new MachineModel(true, () -> {});
+		String result = Loader.load(model, program);
+		if (!"success".equals(result))
+			throw new IllegalStateException(result);
+		return model;
+	}
+}
@@ -69,15 +69,26 @@ public class MemoryViewPanel implements Observer {
 		panel.add(scroller);
 		return panel;
 	}
+	private void showData(int i) {
+		int val = model.getData(i);
+		dataDecimal[i-lower].setText("" + val);
+		String s = Integer.toHexString(val);
+		if(val < 0)
+			s = "-" + Integer.toHexString(-val);
+		dataHex[i-lower].setText(s.toUpperCase());
+	}
 	@Override
 	public void update(Observable arg0, Object arg1) {
-		for(int i = lower; i < upper; i++) {
-			int val = model.getData(i);
-			dataDecimal[i-lower].setText("" + val);
-			String s = Integer.toHexString(val);
-			if(val < 0)
-				s = "-" + Integer.toHexString(-val);
-			dataHex[i-lower].setText(s.toUpperCase());
+		if(arg1 == null) {
+			// after a step only the words written since the last update are redrawn
+			for(int i = model.nextChangedDataIndex(lower); i >= 0 && i < upper; 
+					i = model.nextChangedDataIndex(i+1)) {
+				showData(i);
+			}
+		} else {
+			for(int i = lower; i < upper; i++) {
+				showData(i);
+			}
 		}
 		if(arg1 != null && arg1.equals("Clear")) {
 			if(lower <= previousColor && previousColor < upper) {
@@ -38,6 +38,7 @@ public class Pippin_Run extends Observable {
 			currentState.enter();
 			setChanged();
 			notifyObservers(s);
+			model.clearChangedData();
 	}
 	
 	
@@ -107,6 +108,7 @@ public class Pippin_Run extends Observable {
 		}
 		setChanged();
 		notifyObservers();
+		model.clearChangedData();
 	}
 	
 	public void assembleFile() {
@@ -177,6 +179,7 @@ public class Pippin_Run extends Observable {
 			}
 			setChanged();
 			notifyObservers();
+			model.clearChangedData();
 		}
 	}
 	